@@ -15,7 +15,6 @@ import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * JFrame that runs a JigsawPuzzle. This is the front end for
@@ -77,7 +76,7 @@ public class JigsawFrame extends JFrame implements ActionListener {
 
   /**
    * Creates and displays a simple JFrame containing a jigsaw puzzle in a
-   * JScrollPane. The frame may be resized freely. If an image is supplied
+   * panel. The frame may be resized freely. If an image is supplied
    * on the command line, it will be used; otherwise the user will be
    * prompted.
    *
@@ -117,7 +116,7 @@ public class JigsawFrame extends JFrame implements ActionListener {
     JigsawParam params = new JigsawParam();
     params.setCutter(cutter);
     params.setPieces(pieces);
-    Jigsaw jigsaw = new Jigsaw(params, image, new PiecesBin(new AtomicInteger(1), "main"));
+    Jigsaw jigsaw = new Jigsaw(params, image, new PiecesBin(new PieceRegistry(), "main"));
 
     init(jigsaw, true);
   }
@@ -203,7 +202,7 @@ public class JigsawFrame extends JFrame implements ActionListener {
 
     this.puzzle = new JigsawPanel(jigsaw);
     JPanel oldJigsawPane = new JPanel(new BorderLayout());
-    oldJigsawPane.add(new JScrollPane(puzzle));
+    oldJigsawPane.add(puzzle);
     createStatusBar(oldJigsawPane);
     createToolBar(oldJigsawPane);
     inputManager.addPiecesPanel(puzzle);
@@ -315,7 +314,7 @@ public class JigsawFrame extends JFrame implements ActionListener {
       if (rectangle != null) {
         image = image.getSubimage(rectangle.x, rectangle.y, rectangle.width, rectangle.height);
       }
-      init(new Jigsaw(params, JigUtil.resizeImage(image), new PiecesBin(new AtomicInteger(1), "main")), true);
+      init(new Jigsaw(params, JigUtil.resizeImage(image), new PiecesBin(new PieceRegistry(), "main")), true);
     } catch (IOException e) {
       JOptionPane.showMessageDialog(this, "Image file cannot be read.", "Invalid Image", JOptionPane.ERROR_MESSAGE);
     }
@@ -7,6 +7,7 @@ import uk.co.petertribble.sphaero2.cutter.CutterStatusListener;
 import uk.co.petertribble.sphaero2.cutter.JigsawCutter;
 import uk.co.petertribble.sphaero2.model.JigsawParam;
 import uk.co.petertribble.sphaero2.model.Piece;
+import uk.co.petertribble.sphaero2.model.PieceRegistry;
 import uk.co.petertribble.sphaero2.model.PiecesBin;
 
 import javax.imageio.ImageIO;
@@ -21,7 +22,6 @@ import java.util.Arrays;
 import java.util.Deque;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class CuttingState implements GameState {
     private CuttingPanel panel;
@@ -58,7 +58,7 @@ public class CuttingState implements GameState {
         new Thread(() -> {
             List<Piece> pieces1 = new ArrayList<>(Arrays.asList(cutter.cut(context.getImage())));
 
-            PiecesBin piecesBin = new PiecesBin(new AtomicInteger(1), "");
+            PiecesBin piecesBin = new PiecesBin(new PieceRegistry(), "");
             piecesBin.setPieces(pieces1);
             piecesBin.shuffle(new Rectangle(0, 0, piecesBin.getWidth(), piecesBin.getHeight()), true);
 
@@ -131,21 +131,6 @@ public class CuttingState implements GameState {
             done = true;
             context.setPieces(pieces);
             context.changeState(new PlayState());
-
-            long imageSize = 0;
-            long highlightSize = 0;
-            long currentSize = 0;
-            // count memory usage of pieces
-            for (Piece piece : pieces.getPieces()) {
-                imageSize += piece.getOrigData().length*4L;
-                currentSize += piece.getCurData().length*4L;
-                highlightSize += piece.getHighlightData().length*4L;
-            }
-            System.out.println("memory usages:");
-            System.out.println("image size: "+imageSize);
-            System.out.println("highlightSize: "+highlightSize);
-            System.out.println("currentSize: "+currentSize);
-            System.out.println("total memory: "+(imageSize+highlightSize+currentSize));
         }
     }
 }
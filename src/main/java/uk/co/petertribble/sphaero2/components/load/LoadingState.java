@@ -20,7 +20,6 @@ import java.nio.file.Path;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static java.nio.file.StandardOpenOption.READ;
@@ -62,12 +61,6 @@ public class LoadingState implements GameState {
     private Jigsaw loadSavedState(Path outPath) {
         JigsawParam params = new JigsawParam();
         try {
-            long currentDataDuration = 0;
-            long bevelDuration = 0;
-            long highlightDuration = 0;
-            long imageDuration = 0;
-            long highlightImageDuration = 0;
-
             BufferedImage originalImage = ImageIO.read(outPath.resolve("source.png").toFile());
             Map<Integer, Piece> pieces = new LinkedHashMap<>();
             Map<Integer, List<Integer>> neighbours = new HashMap<>();
@@ -114,11 +107,6 @@ public class LoadingState implements GameState {
                         piecesData.readFully(pieceData, 0, pieceData.length);
 
                         Piece piece = new Piece(id, pieceData, imageX, imageY, imageWidth, imageHeight, originalImage.getWidth(), originalImage.getHeight(), rotation);
-                        currentDataDuration += piece.currentDataDuration;
-                        bevelDuration += piece.bevelDuration;
-                        highlightDuration += piece.highlightDuration;
-                        imageDuration += piece.imageDuration;
-                        highlightImageDuration += piece.highlightImageDuration;
                         piece.setPuzzlePosition(puzzleX, puzzleY);
                         piece.setCurrentPosition(puzzleX, puzzleY);
                         pieces.put(id, piece);
@@ -181,16 +169,7 @@ public class LoadingState implements GameState {
                     }
                 }
                 List<Piece> finalPieces = new ArrayList<>(pieces.values());
-                int lastId = finalPieces.stream().mapToInt(Piece::getId).max().orElse(1);
-                Jigsaw jigsaw = new Jigsaw(params, originalImage, new PiecesBin(new AtomicInteger(lastId+1), "main", finalPieces));
-
-                System.out.println("Statistics: ");
-                System.out.println(" * currentDataDuration: "+currentDataDuration );
-                System.out.println(" * bevelDuration: " + bevelDuration);
-                System.out.println(" * highlightDuration: " + highlightDuration);
-                System.out.println(" * imageDuration: " + imageDuration);
-                System.out.println(" * highlightImageDuration: " + highlightImageDuration);
-
+                Jigsaw jigsaw = new Jigsaw(params, originalImage, new PiecesBin(new PieceRegistry(), "main", finalPieces));
 
                 return jigsaw;
             }
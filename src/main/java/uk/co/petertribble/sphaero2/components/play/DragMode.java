@@ -8,5 +8,7 @@ public enum DragMode {
   /** Draw rectangle on the table. */
   MOVE_SELECTION_RECTANGLE,
   /** Drags a rectangle on the table. */
-  DRAG_SELECTION_RECTANGLE
+  DRAG_SELECTION_RECTANGLE,
+  /** Moves the camera over the table. */
+  PAN
 }
@@ -71,9 +71,8 @@ public class InputManager extends JPanel implements MouseListener, MouseMotionLi
       if (currentDraggedPiece != null) {
         this.currentDraggedPosition = e.getLocationOnScreen();
         this.sourcePanel = panel;
-        int deltaX = (int) (point.x - currentDraggedPiece.getPuzzleX() * panel.getScale());
-        int deltaY = (int) (point.y - currentDraggedPiece.getPuzzleY() * panel.getScale());
-        this.pieceRelativePos = new Point(deltaX, deltaY);
+        Point piecePos = panel.toPanelPoint(currentDraggedPiece.getPuzzleX(), currentDraggedPiece.getPuzzleY());
+        this.pieceRelativePos = new Point(point.x - piecePos.x, point.y - piecePos.y);
       }
     } else {
       this.currentDraggedPosition = null;
@@ -99,9 +98,10 @@ public class InputManager extends JPanel implements MouseListener, MouseMotionLi
         if (sourcePanel != panel) {
           // drop piece in this panel
           System.out.println("drop to " + panel.getPiecesBin().getName() + " @ " + relativePos);
-          currentDraggedPiece.setPuzzlePosition((int) (relativePos.x/panel.getScale()), (int) (relativePos.y/panel.getScale()));
-          panel.getPiecesBin().getPieces().add(currentDraggedPiece);
-          sourcePanel.getPiecesBin().getPieces().remove(currentDraggedPiece);
+          Point puzzlePos = panel.toPuzzlePoint(relativePos);
+          currentDraggedPiece.setPuzzlePosition(puzzlePos.x, puzzlePos.y);
+          sourcePanel.getPiecesBin().remove(currentDraggedPiece);
+          panel.getPiecesBin().add(currentDraggedPiece);
           break;
         }
       }
@@ -12,9 +12,6 @@ import java.awt.event.MouseEvent;
 import java.awt.image.MemoryImageSource;
 import java.awt.image.PixelGrabber;
 
-// ### I think I need a quicker way to detect which piece is clicked on.
-//   Mouse-down lags when there are lots of pieces.
-
 /**
  * Jigsaw puzzle.
  */
@@ -50,10 +47,13 @@ public class JigsawPanel extends JigsawPiecesPanel {
 
 
     if (jigsaw.isFinished() && jigsaw.getFinishedImage() != null) {
-      Piece lastPiece = jigsaw.getPieces().getPieces().get(0);
+      Piece lastPiece = jigsaw.getPieces().getBottomPiece();
       int x = lastPiece.getPuzzleX();
       int y = lastPiece.getPuzzleY();
-      g.drawImage(jigsaw.getFinishedImage(), x, y, null);
+      Graphics2D g2 = (Graphics2D) g.create();
+      applyCamera(g2);
+      g2.drawImage(jigsaw.getFinishedImage(), x, y, null);
+      g2.dispose();
     }
   }
 
@@ -73,7 +73,8 @@ public class JigsawPanel extends JigsawPiecesPanel {
     }
     jigsaw.setFinished();
     setScale(1.0f);
-    Piece lastPiece = jigsaw.getPieces().getPieces().get(0);
+    setViewPosition(0, 0);
+    Piece lastPiece = jigsaw.getPieces().getBottomPiece();
 
     // Auto-rotate the puzzle to its correct position.
     lastPiece.setRotation(0);
@@ -92,10 +93,11 @@ public class JigsawPanel extends JigsawPiecesPanel {
     int curH = getHeight();
     final int centerX = (curW - width) / 2;
     final int centerY = (curH - height) / 2;
+    final Rectangle finishedArea = new Rectangle(centerX, centerY, width, height);
     lastPiece.setPuzzlePosition(centerX, centerY);
     lastPiece.setCurrentPosition(centerX, centerY);
-    repaint(0, prevX, prevY, width, height);
-    repaint(0, centerX, centerY, width, height);
+    repaintRectangleScaled(new Rectangle(prevX, prevY, width, height));
+    repaintRectangleScaled(finishedArea);
 
     // Draw the original image on top of the last piece in increasing
     // opaqueness.  This should make the pieces appear to fade into the
@@ -123,7 +125,7 @@ public class JigsawPanel extends JigsawPiecesPanel {
         }
         jigsaw.setFinishedImage(Toolkit.getDefaultToolkit().createImage(
             new MemoryImageSource(width, height, data, 0, width)));
-        repaint(0, centerX, centerY, width, height);
+        repaintRectangleScaled(finishedArea);
         if (trans < 0xff) {
           trans += 0x11;
           if (trans >= 0xff) {
@@ -136,6 +138,16 @@ public class JigsawPanel extends JigsawPiecesPanel {
       }
     };
 
+    if (!getQualityGovernor().getQuality().isFadeIn()) {
+      // show the finished image at once
+      for (int i = 0; i < data.length; i++) {
+        data[i] |= 0xff000000;
+      }
+      jigsaw.setFinishedImage(Toolkit.getDefaultToolkit().createImage(
+          new MemoryImageSource(width, height, data, 0, width)));
+      repaintRectangleScaled(finishedArea);
+      return;
+    }
     Timer timer = new Timer(200, fader);
     timer.setRepeats(false);
     timer.start();
@@ -1,7 +1,12 @@
 package uk.co.petertribble.sphaero2.components.play;
 
 import com.berray.math.Rect;
+import uk.co.petertribble.sphaero2.model.GeomUtil;
+import uk.co.petertribble.sphaero2.model.MemoryAccounting;
+import uk.co.petertribble.sphaero2.model.MemoryBreakdown;
 import uk.co.petertribble.sphaero2.model.Piece;
+import uk.co.petertribble.sphaero2.model.PieceAtlas;
+import uk.co.petertribble.sphaero2.model.PieceLevels;
 import uk.co.petertribble.sphaero2.model.PieceSet;
 import uk.co.petertribble.sphaero2.model.PiecesBin;
 
@@ -9,13 +14,19 @@ import javax.swing.*;
 import javax.swing.Timer;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
 import java.util.*;
 import java.util.List;
 
 /**
  * Panel with pieces to display and solve. The pieces on this panel do not necessarily be all pieces of the jigsaw.
+ * <p>
+ * The panel is a fixed size viewport onto the table. A camera, made of the zoom {@link #getScale() scale} and a pan
+ * offset, decides which part of the table is shown, so pieces can be anywhere, even at negative coordinates. The
+ * mouse wheel zooms around the cursor and dragging with the middle or right mouse button pans. Zooming and panning
+ * don't change the size of the panel, so they never trigger a layout.
  */
-public class JigsawPiecesPanel extends JPanel {
+public class JigsawPiecesPanel extends JPanel implements MemoryAccounting.Source {
 
   public static final char ROTATE_LEFT = 'E';
   public static final char ROTATE_RIGHT = 'R';
@@ -28,14 +39,54 @@ public class JigsawPiecesPanel extends JPanel {
   public static final char CLEAR = 'C';
   public static final char SCALE_IN = '+';
   public static final char SCALE_OUT = '-';
+  public static final char OVERLAY = 'F';
+
+  public static final String OVERLAY_PROPERTY = "sphaero2.overlay";
+  private static final Font OVERLAY_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 11);
+  private static final Color OVERLAY_BACKGROUND = new Color(0, 0, 0, 160);
+
+  private static final float MIN_SCALE = 0.05f;
+  private static final float MAX_SCALE = 8.0f;
+  /** Zoom factor of one notch of the mouse wheel. */
+  private static final double WHEEL_ZOOM = 1.1;
 
   private float scale = 1.0f;
+  /**
+   * Position of the top left corner of the panel on the zoomed table, in panel pixels. A point of the table is
+   * shown at <code>puzzleX * scale - viewX</code>. The pan offset is kept in whole pixels, so a pan moves the
+   * content by whole pixels and the unchanged part can be copied on screen.
+   */
+  private int viewX;
+  private int viewY;
+  /** Mouse position of the last event while the view is panned. */
+  private Point panPoint;
+
+  /** Time without movement after which the panel is painted again in high quality. */
+  private static final int SETTLE_DELAY_MS = 200;
+  /** Time of the last move of the view or of pieces, as returned by {@link System#nanoTime()}. */
+  private long lastMotionTime;
+  /** Paints the panel in high quality once the movement stopped. */
+  private final Timer settleTimer;
+  /** Start of the current and of the previous paint, as returned by {@link System#nanoTime()}. */
+  private long frameStart;
+  private long previousFrameStart;
 
   /** Point where the mouse was clicked when the drag started. */
   private Point dragStart;
   /** Anchor of the thing that is dragged when the drag started. This is either the top left corner of the selection
    * rectangle or the {@link PieceSet#getAnchor() anchor}  of the {@link PieceSet}. */
   private Point dragAnchor;
+  /** Reused for the area to repaint while dragging and animating. */
+  private final Rectangle dirtyRectangle = new Rectangle();
+  /** Reused list of the pieces to paint. */
+  private final List<Piece> visiblePieces = new ArrayList<>();
+  /**
+   * Background and all pieces which are not dragged, rendered once when a drag of pieces starts. While the drag
+   * runs, only the dragged pieces are drawn on top of it. null when there is no drag.
+   */
+  private BufferedImage staticLayer;
+  /** Area of the panel (in panel coordinates) which is covered by the static layer. */
+  private final Rectangle staticLayerBounds = new Rectangle();
 
   // Available background colors
   private static final Color[] bgColors = {
@@ -79,14 +130,30 @@ public class JigsawPiecesPanel extends JPanel {
    * Bin with the pieces to display and edit.
    */
   private PiecesBin piecesBin;
+  /** Full resolution images of the pieces of the bin, packed into a few large images. null if disabled. */
+  private PieceAtlas atlas;
   /** Set of pieces which are selected at the moment. */
-  private PieceSet selection = new PieceSet();
+  private PieceSet selection;
   /** Pieces in the selection rectangle when is was drawn. */
   private PieceSet piecesInSelectionRectangle;
 
-  private final List<Piece> animatingPieces = new ArrayList<>();
-  private final Map<Piece, AnimationData> animationDataMap = new HashMap<>();
+  /** Animates pieces to their puzzle position. */
+  private final PieceAnimator animator = new PieceAnimator();
+  /** Drives the animations when there is no render loop. */
   private final Timer animationTimer;
+  /** Paints the panel at a fixed frame rate, null when the panel is painted by Swing's repaint manager. */
+  private final RenderLoop renderLoop;
+  /** Paints large areas in tiles on several threads, null when disabled. */
+  private final TiledRenderer<List<Piece>> tiledRenderer = TiledRenderer.fromSystemProperty();
+  private final PieceTilePainter tilePainter = new PieceTilePainter();
+  /** Lowers the effects when painting gets too slow. */
+  private final QualityGovernor governor = QualityGovernor.fromSystemProperty();
+  /** Statistics of the last frames, null when the performance overlay is hidden. */
+  private PaintStatistics statistics;
+  /** Refreshes the performance overlay and samples the latency of the event queue. Runs while the panel is shown. */
+  private final Timer overlayTimer;
+  /** Area of the performance overlay in panel coordinates. */
+  private final Rectangle overlayBounds = new Rectangle(8, 8, 360, 100);
 
 
   public JigsawPiecesPanel() {
@@ -96,40 +163,63 @@ public class JigsawPiecesPanel extends JPanel {
     setCursor(NORMAL_CURSOR);
     setClearColor();
     addListeners();
-    animationTimer = new Timer(10, this::timerAction);
+    animationTimer = new Timer(16, this::timerAction);
+    renderLoop = RenderLoop.fromSystemProperty(this, this::animationFrame);
+    settleTimer = new Timer(SETTLE_DELAY_MS, e -> settle());
+    settleTimer.setRepeats(false);
+    governor.addChangeListener(e -> {
+      invalidateStaticLayer();
+      repaint();
+    });
+    overlayTimer = new Timer(500, e -> refreshOverlay());
+    setOverlayVisible(Boolean.getBoolean(OVERLAY_PROPERTY));
   }
 
-  public void setSelectionMode(boolean enabled) {
-    this.selectionEnabled = enabled;
+  @Override
+  public void addNotify() {
+    super.addNotify();
+    if (renderLoop != null) {
+      renderLoop.start();
+    }
+    overlayTimer.start();
   }
 
-  private float easeOut(float t) {
-    return 1 - (1 - t) * (1 - t);
+  @Override
+  public void removeNotify() {
+    if (renderLoop != null) {
+      renderLoop.stop();
+    }
+    overlayTimer.stop();
+    super.removeNotify();
   }
 
-  private void animatePieceTo(Piece piece, int endX, int endY, int durationMs) {
-    // If already animating, remove from current animation
-    if (animatingPieces.contains(piece)) {
-      animatingPieces.remove(piece);
-      animationDataMap.remove(piece);
+  /**
+   * With active rendering, repaint requests only mark the area as dirty. The render loop paints all areas of a
+   * frame at once.
+   */
+  @Override
+  public void repaint(long tm, int x, int y, int width, int height) {
+    if (renderLoop != null && renderLoop.isRunning()) {
+      renderLoop.addDirtyRegion(x, y, width, height);
+    } else {
+      super.repaint(tm, x, y, width, height);
     }
+  }
 
-    // Set up new animation
-    AnimationData data = new AnimationData(
-            piece.getCurrentX(),
-            piece.getCurrentY(),
-            endX,
-            endY,
-            durationMs
-    );
+  public void setSelectionMode(boolean enabled) {
+    this.selectionEnabled = enabled;
+  }
+
+  private void animatePieceTo(Piece piece, int endX, int endY, int durationMs, long now) {
+    // a piece which is already animated is retargeted from where it is now
+    animator.animate(piece, endX, endY, durationMs * 1_000_000L, now);
 
     // Update final puzzle position
     piece.setPuzzlePosition(endX, endY);
 
-    animatingPieces.add(piece);
-    animationDataMap.put(piece, data);
-
-    if (!animationTimer.isRunning()) {
+    if (renderLoop != null && renderLoop.isRunning()) {
+      renderLoop.requestFrame();
+    } else if (!animationTimer.isRunning()) {
       animationTimer.start();
     }
   }
@@ -138,10 +228,19 @@ public class JigsawPiecesPanel extends JPanel {
     if (!SwingUtilities.isEventDispatchThread()) {
       throw new IllegalStateException("method can only be called from the EDT");
     }
+    long now = System.nanoTime();
+    int maxAnimations = governor.getQuality().getMaxAnimations();
     for (Piece piece : piecesBin.getPieces()) {
       if (piece.getCurrentX() != piece.getPuzzleX() ||
               piece.getCurrentY() != piece.getPuzzleY()) {
-        animatePieceTo(piece, piece.getPuzzleX(), piece.getPuzzleY(), durationMs);
+        if (animator.size() < maxAnimations || animator.isAnimating(piece)) {
+          animatePieceTo(piece, piece.getPuzzleX(), piece.getPuzzleY(), durationMs, now);
+        } else {
+          // too many animations for the current quality: the piece jumps to its place
+          repaintRectangleScaled(piece.getDrawBounds(dirtyRectangle));
+          piece.setCurrentPosition(piece.getPuzzleX(), piece.getPuzzleY());
+          repaintRectangleScaled(piece.getDrawBounds(dirtyRectangle));
+        }
       }
     }
   }
@@ -164,6 +263,8 @@ public class JigsawPiecesPanel extends JPanel {
         mouseDragged0(e);
       }
     });
+    addMouseWheelListener(e ->
+        zoomAt((float) (scale * Math.pow(WHEEL_ZOOM, -e.getPreciseWheelRotation())), e.getX(), e.getY()));
     addKeyListener(new KeyAdapter() {
       @Override
       public void keyTyped(KeyEvent e) {
@@ -173,19 +274,37 @@ public class JigsawPiecesPanel extends JPanel {
   }
 
   public void setPiecesBin(PiecesBin piecesBin) {
+    invalidateStaticLayer();
+    if (atlas != null) {
+      atlas.clear();
+    }
+    if (tiledRenderer != null) {
+      tiledRenderer.clear();
+    }
     this.piecesBin = piecesBin;
+    this.selection = piecesBin == null ? null : new PieceSet(piecesBin.getRegistry());
+    this.piecesInSelectionRectangle = piecesBin == null ? null : new PieceSet(piecesBin.getRegistry());
+    this.atlas = piecesBin == null ? null : PieceAtlas.fromSystemProperty(piecesBin);
   }
 
   public PiecesBin getPiecesBin() {
     return piecesBin;
   }
 
+  /** Replaces the selection with the given pieces. */
+  void select(Collection<Piece> pieces) {
+    selection.clear();
+    pieces.forEach(selection::add);
+    repaint();
+  }
+
   /**
    * Move current pieces around randomly, randomize z-order, but don't
    * randomize rotation.
    */
   public void shuffle() {
-    shuffle((int) (getWidth() / scale), (int) (getHeight() / scale));
+    // the visible part of the table
+    shuffle(toPuzzleX(0), toPuzzleY(0), (int) (getWidth() / scale), (int) (getHeight() / scale), false);
   }
 
   public void shuffle(int width, int height) {
@@ -238,37 +357,340 @@ public class JigsawPiecesPanel extends JPanel {
    * Push the top piece (at the front) to the bottom (the back).
    */
   public void push() {
+    invalidateStaticLayer();
     Piece piece = piecesBin.push();
     repaintRectangleScaled(piece.getDrawBounds());
   }
 
+  public QualityGovernor getQualityGovernor() {
+    return governor;
+  }
+
+  /** Adds the atlas and the offscreen buffers of this panel. The pieces are counted by their jigsaw. */
+  @Override
+  public void accountMemory(MemoryBreakdown breakdown) {
+    if (atlas != null) {
+      breakdown.add(MemoryBreakdown.Category.ATLAS, atlas.getByteSize());
+    }
+    breakdown.addImage(MemoryBreakdown.Category.CACHES, staticLayer);
+    if (tiledRenderer != null) {
+      breakdown.add(MemoryBreakdown.Category.CACHES, tiledRenderer.getByteSize());
+    }
+  }
+
   @Override
   protected void paintComponent(Graphics graphics) {
-    super.paintComponent(graphics);
+    long paintStart = System.nanoTime();
+    previousFrameStart = frameStart;
+    frameStart = paintStart;
+    long startBytes = statistics != null ? PaintStatistics.allocatedBytes() : -1;
+    int drawn = 0;
+    Rectangle deviceClip = graphics.getClipBounds();
+    boolean useStaticLayer = isStaticLayerValid() && deviceClip != null && staticLayerBounds.contains(deviceClip);
+    // while the view or pieces move, frame rate is more important than quality
+    boolean fast = isMoving();
+    boolean tiled = !useStaticLayer && piecesBin != null && tiledRenderer != null && deviceClip != null
+        && tiledRenderer.isWorthSplitting(deviceClip);
+    if (useStaticLayer) {
+      // the static layer already contains the background
+      graphics.drawImage(staticLayer, staticLayerBounds.x, staticLayerBounds.y, null);
+    } else if (tiled) {
+      // the tiles contain the background and the pieces
+      tilePainter.setUp(fast);
+      tiledRenderer.paint(graphics, deviceClip, tilePainter);
+      drawn = tilePainter.drawn;
+    } else {
+      super.paintComponent(graphics);
+    }
+
+    if (piecesBin == null) {
+      return;
+    }
 
     Graphics2D g = (Graphics2D) graphics.create();
-    g.scale(scale, scale);
+    try {
+      applyCamera(g);
+      if (!tiled) {
+        applyQuality(g, fast);
+        // only draw the pieces in the clip area. Clip is in puzzle coordinates because of the camera.
+        drawn = paintPieces(g, g.getClipBounds(), useStaticLayer, fast);
+      }
 
-    if (piecesBin == null) {
+      if (selectionRectangle != null) {
+        g.setColor(clearColor);
+        int x = Math.min(selectionRectangle.x, selectionRectangle.x + selectionRectangle.width);
+        int y = Math.min(selectionRectangle.y, selectionRectangle.y + selectionRectangle.height);
+        int width = Math.abs(selectionRectangle.width);
+        int height = Math.abs(selectionRectangle.height);
+
+        g.fillRect(x, y, width, height);
+      }
+    } finally {
+      g.dispose();
+    }
+    long paintNanos = System.nanoTime() - paintStart;
+
+    // refreshing the overlay is not a frame
+    boolean overlayOnly = statistics != null && deviceClip != null && overlayBounds.contains(deviceClip);
+    if (!overlayOnly) {
+      governor.frameRendered(paintNanos);
+      if (statistics != null) {
+        long area = deviceClip == null ? (long) getWidth() * getHeight() : (long) deviceClip.width * deviceClip.height;
+        statistics.frame(paintStart, paintNanos, drawn, area,
+            startBytes < 0 ? -1 : PaintStatistics.allocatedBytes() - startBytes);
+      }
+    }
+    if (statistics != null) {
+      paintOverlay(graphics);
+    }
+  }
+
+  public boolean isOverlayVisible() {
+    return statistics != null;
+  }
+
+  /** Shows or hides the performance overlay. Statistics are only collected while it is visible. */
+  public void setOverlayVisible(boolean visible) {
+    if (visible == isOverlayVisible()) {
       return;
     }
+    statistics = visible ? new PaintStatistics(240) : null;
+    repaint(overlayBounds);
+  }
 
+  /** Samples the latency of the event queue and repaints the overlay, if it is visible. */
+  private void refreshOverlay() {
+    if (statistics == null) {
+      return;
+    }
+    long posted = System.nanoTime();
+    SwingUtilities.invokeLater(() -> {
+      if (statistics != null) {
+        statistics.edtLatency(System.nanoTime() - posted);
+      }
+    });
+    repaint(overlayBounds);
+  }
 
-    for (Piece piece : piecesBin.getPieces()) {
-      if (selection.contains(piece)) {
-        piece.drawHighlight(g);
+  /** Draws the performance overlay in the top left corner. */
+  private void paintOverlay(Graphics graphics) {
+    List<String> lines = statistics.describe(piecesBin.size(), (long) getWidth() * getHeight());
+    lines.add("quality   " + governor.getQuality().getLabel());
+    graphics.setFont(OVERLAY_FONT);
+    FontMetrics metrics = graphics.getFontMetrics();
+    int width = 0;
+    for (String line : lines) {
+      width = Math.max(width, metrics.stringWidth(line));
+    }
+    overlayBounds.setSize(width + 12, lines.size() * metrics.getHeight() + 8);
+    graphics.setColor(OVERLAY_BACKGROUND);
+    graphics.fillRect(overlayBounds.x, overlayBounds.y, overlayBounds.width, overlayBounds.height);
+    graphics.setColor(Color.WHITE);
+    int y = overlayBounds.y + 4 + metrics.getAscent();
+    for (String line : lines) {
+      graphics.drawString(line, overlayBounds.x + 6, y);
+      y += metrics.getHeight();
+    }
+  }
+
+  /**
+   * Draws the pieces in the clip area in z-order.
+   *
+   * @param g        graphics, already transformed to puzzle coordinates
+   * @param clip     area to draw in puzzle coordinates, or null to draw all pieces
+   * @param selectedOnly true to draw only the selected pieces, false to draw all pieces
+   * @param fast     true to leave out the highlights of the selected pieces
+   * @return the number of pieces drawn
+   */
+  private int paintPieces(Graphics2D g, Rectangle clip, boolean selectedOnly, boolean fast) {
+    visiblePieces.clear();
+    Collection<Piece> piecesToDraw = clip == null
+        ? piecesBin.getPieces()
+        : piecesBin.getPiecesToDraw(clip, animator.getPieces(), visiblePieces);
+    // zoomed out: draw reduced images instead of resampling the full images
+    return drawPieces(g, piecesToDraw, selectedOnly, fast, levelForScale());
+  }
+
+  /** Draws the pieces in the given order, see {@link #paintPieces(Graphics2D, Rectangle, boolean, boolean)}. */
+  private int drawPieces(Graphics2D g, Collection<Piece> piecesToDraw, boolean selectedOnly, boolean fast, int level) {
+    int drawn = 0;
+    for (Piece piece : piecesToDraw) {
+      boolean selected = selection.contains(piece);
+      if (selected) {
+        if (!fast) {
+          piece.drawHighlight(g, governor.getQuality().isShadow());
+        }
+      } else if (selectedOnly) {
+        continue;
       }
-      piece.draw(g);
+      drawPiece(g, piece, level);
+      drawn++;
     }
+    return drawn;
+  }
 
-    if (selectionRectangle != null) {
-      g.setColor(clearColor);
-      int x = Math.min(selectionRectangle.x, selectionRectangle.x + selectionRectangle.width);
-      int y = Math.min(selectionRectangle.y, selectionRectangle.y + selectionRectangle.height);
-      int width = Math.abs(selectionRectangle.width);
-      int height = Math.abs(selectionRectangle.height);
+  private void drawPiece(Graphics2D g, Piece piece, int level) {
+    if (level > 0 || atlas == null || !atlas.draw(g, piece, piece.getCurrentX(), piece.getCurrentY())) {
+      piece.draw(g, level);
+    }
+  }
 
-      g.fillRect(x, y, width, height);
+  /**
+   * Paints the tiles of the tiled renderer. The pieces of a tile are looked up and everything they are drawn with
+   * is created on the event dispatch thread, so the workers only read.
+   */
+  private class PieceTilePainter implements TiledRenderer.TilePainter<List<Piece>> {
+    private final Rectangle puzzleArea = new Rectangle();
+    private boolean fast;
+    private int level;
+    private Color background;
+    /** Pieces drawn in all tiles; a piece in several tiles is counted for each. */
+    int drawn;
+
+    void setUp(boolean fast) {
+      this.fast = fast;
+      this.drawn = 0;
+      this.level = levelForScale();
+      this.background = getBackground();
+    }
+
+    @Override
+    public List<Piece> prepare(Rectangle tile, List<Piece> job) {
+      List<Piece> pieces = job != null ? job : new ArrayList<>();
+      pieces.clear();
+      int x = toPuzzleX(tile.x);
+      int y = toPuzzleY(tile.y);
+      puzzleArea.setBounds(x, y, toPuzzleX(tile.x + tile.width) - x + 1, toPuzzleY(tile.y + tile.height) - y + 1);
+      piecesBin.getPiecesToDraw(puzzleArea, animator.getPieces(), pieces);
+      drawn += pieces.size();
+      for (Piece piece : pieces) {
+        if (!fast && selection.contains(piece)) {
+          piece.prepareHighlight();
+        }
+        if (level > 0 || atlas == null || !atlas.prepare(piece)) {
+          piece.prepareImage(level);
+        }
+      }
+      return pieces;
+    }
+
+    @Override
+    public void paint(Graphics2D g, Rectangle tile, List<Piece> pieces) {
+      g.setColor(background);
+      g.fillRect(tile.x, tile.y, tile.width, tile.height);
+      applyCamera(g);
+      applyQuality(g, fast);
+      // only draw what prepare created; selection and atlas are not changed while the workers run
+      for (Piece piece : pieces) {
+        if (!fast && selection.contains(piece)) {
+          piece.drawPreparedHighlight(g, governor.getQuality().isShadow());
+        }
+        if (level > 0 || atlas == null || !atlas.isPacked(piece)) {
+          piece.drawPrepared(g, level);
+        } else {
+          atlas.drawPrepared(g, piece);
+        }
+      }
+    }
+  }
+
+  /**
+   * Renders the visible part of the panel without the selected pieces into the static layer. Dragged pieces are
+   * drawn above all other pieces while the drag runs, so the static layer doesn't change until the drag ends.
+   */
+  private void createStaticLayer() {
+    Rectangle visible = getVisibleRect();
+    if (visible.isEmpty()) {
+      return;
+    }
+    if (staticLayer == null || staticLayer.getWidth() != visible.width || staticLayer.getHeight() != visible.height) {
+      invalidateStaticLayer();
+      GraphicsConfiguration configuration = getGraphicsConfiguration();
+      staticLayer = configuration != null
+          ? configuration.createCompatibleImage(visible.width, visible.height)
+          : new BufferedImage(visible.width, visible.height, BufferedImage.TYPE_INT_RGB);
+    }
+    staticLayerBounds.setBounds(visible);
+
+    Graphics2D g = staticLayer.createGraphics();
+    g.setColor(getBackground());
+    g.fillRect(0, 0, visible.width, visible.height);
+    g.translate(-visible.x, -visible.y);
+    g.setClip(visible);
+    applyCamera(g);
+    // the layer is shown for the whole drag, so it is worth the high quality
+    applyQuality(g, false);
+    visiblePieces.clear();
+    int level = levelForScale();
+    for (Piece piece : piecesBin.getPiecesToDraw(g.getClipBounds(), animator.getPieces(), visiblePieces)) {
+      if (!selection.contains(piece)) {
+        drawPiece(g, piece, level);
+      }
+    }
+    g.dispose();
+  }
+
+  /**
+   * Sets the interpolation for drawing scaled pieces. Nearest neighbour is the fastest; at rest bilinear is used
+   * when zoomed out (the reduced images already did most of the filtering) and bicubic when zoomed in.
+   */
+  private void applyQuality(Graphics2D g, boolean fast) {
+    Object interpolation;
+    if (fast || scale == 1.0f || !governor.getQuality().isSmoothScaling()) {
+      interpolation = RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
+    } else if (scale < 1.0f) {
+      interpolation = RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+    } else {
+      interpolation = RenderingHints.VALUE_INTERPOLATION_BICUBIC;
+    }
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+  }
+
+  /**
+   * Returns the level of the reduced images for the current scale. At a lower quality smaller images are used when
+   * zoomed out.
+   */
+  private int levelForScale() {
+    int level = PieceLevels.levelForScale(scale);
+    if (scale < 1.0f) {
+      level = Math.min(PieceLevels.LEVELS, level + governor.getQuality().getLevelBias());
+    }
+    return level;
+  }
+
+  /** Returns true while pieces are animated or the view or pieces were moved a moment ago. */
+  private boolean isMoving() {
+    return !animator.isEmpty() || System.nanoTime() - lastMotionTime < SETTLE_DELAY_MS * 1_000_000L;
+  }
+
+  /** Called when the view or pieces move. The panel is painted in high quality once the movement stops. */
+  void markMotion() {
+    lastMotionTime = System.nanoTime();
+    settleTimer.restart();
+  }
+
+  private void settle() {
+    if (isMoving()) {
+      settleTimer.restart();
+      return;
+    }
+    if (scale != 1.0f) {
+      repaint();
+    } else if (!selection.isEmpty()) {
+      // at scale 1 only the highlights are missing
+      repaintRectangleScaled(selection.getDrawBounds(dirtyRectangle));
+    }
+  }
+
+  /** The static layer can only be used while pieces are dragged and nothing else moves. */
+  private boolean isStaticLayerValid() {
+    return staticLayer != null && dragMode == DragMode.PIECES && animator.isEmpty();
+  }
+
+  private void invalidateStaticLayer() {
+    if (staticLayer != null) {
+      staticLayer.flush();
+      staticLayer = null;
     }
   }
 
@@ -276,18 +698,158 @@ public class JigsawPiecesPanel extends JPanel {
     return scale;
   }
 
+  /**
+   * Sets the zoom factor. The pan offset is kept, so the view moves towards or away from the top left corner of the
+   * table. Use {@link #zoomAt(float, int, int)} to keep a point in place.
+   */
   public void setScale(float scale) {
+    invalidateStaticLayer();
     this.scale = scale;
   }
 
-  @Override
-  public Dimension getMaximumSize() {
-    return getPreferredSize();
+  /**
+   * Zooms so the point of the table under the given panel position stays where it is.
+   *
+   * @param newScale new zoom factor, limited to a sensible range
+   * @param x        x position in the panel
+   * @param y        y position in the panel
+   */
+  public void zoomAt(float newScale, int x, int y) {
+    newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, newScale));
+    if (newScale == scale) {
+      return;
+    }
+    double puzzleX = (x + viewX) / (double) scale;
+    double puzzleY = (y + viewY) / (double) scale;
+    setScale(newScale);
+    viewX = (int) Math.round(puzzleX * newScale - x);
+    viewY = (int) Math.round(puzzleY * newScale - y);
+    markMotion();
+    repaint();
   }
 
-  @Override
-  public Dimension getMinimumSize() {
-    return getPreferredSize();
+  /**
+   * Moves the camera so the given point of the table is at the top left corner of the panel.
+   */
+  public void setViewPosition(int puzzleX, int puzzleY) {
+    invalidateStaticLayer();
+    viewX = Math.round(puzzleX * scale);
+    viewY = Math.round(puzzleY * scale);
+    repaint();
+  }
+
+  /**
+   * Moves the camera by the given number of panel pixels. The part of the panel which stays visible is copied on
+   * screen, only the uncovered strips are painted again.
+   */
+  public void panBy(int dx, int dy) {
+    if (dx == 0 && dy == 0) {
+      return;
+    }
+    invalidateStaticLayer();
+    markMotion();
+    viewX += dx;
+    viewY += dy;
+    int width = getWidth();
+    int height = getHeight();
+    if (!blit(dx, dy, width, height)) {
+      repaint();
+      return;
+    }
+    if (dx > 0) {
+      repaint(width - dx, 0, dx, height);
+    } else if (dx < 0) {
+      repaint(0, 0, -dx, height);
+    }
+    if (dy > 0) {
+      repaint(0, height - dy, width, dy);
+    } else if (dy < 0) {
+      repaint(0, 0, width, -dy);
+    }
+  }
+
+  /**
+   * Copies the content of the panel which stays visible after a pan of the given distance.
+   *
+   * @return false if the content can't be copied and the whole panel must be painted
+   */
+  private boolean blit(int dx, int dy, int width, int height) {
+    if (!isShowing() || Math.abs(dx) >= width || Math.abs(dy) >= height) {
+      return false;
+    }
+    // pending repaints would be copied with their old content
+    if (!RepaintManager.currentManager(this).getDirtyRegion(this).isEmpty()
+        || (renderLoop != null && renderLoop.hasPendingFrame()) || isObscured()) {
+      return false;
+    }
+    Graphics g = getGraphics();
+    if (g == null) {
+      return false;
+    }
+    try {
+      g.copyArea(Math.max(dx, 0), Math.max(dy, 0), width - Math.abs(dx), height - Math.abs(dy), -dx, -dy);
+    } finally {
+      g.dispose();
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if an opaque component of a higher layer (like a palette) covers a part of the panel. Copying
+   * the screen content would copy that component too.
+   */
+  private boolean isObscured() {
+    JLayeredPane layeredPane = JLayeredPane.getLayeredPaneAbove(this);
+    if (layeredPane == null) {
+      return false;
+    }
+    Rectangle bounds = SwingUtilities.convertRectangle(this, new Rectangle(getSize()), layeredPane);
+    for (Component component : layeredPane.getComponents()) {
+      if (component.isVisible() && component.isOpaque() && !SwingUtilities.isDescendingFrom(this, component)
+          && component.getBounds().intersects(bounds)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Transforms the graphics from panel to puzzle coordinates. */
+  protected void applyCamera(Graphics2D g) {
+    g.translate(-viewX, -viewY);
+    g.scale(scale, scale);
+  }
+
+  private int toPuzzleX(int x) {
+    return (int) Math.floor((x + viewX) / scale);
+  }
+
+  private int toPuzzleY(int y) {
+    return (int) Math.floor((y + viewY) / scale);
+  }
+
+  /**
+   * Returns the start of the previous paint, as returned by {@link System#nanoTime()}. Pieces drawn since then are
+   * on screen in the current or the last frame.
+   */
+  public long getPreviousFrameStart() {
+    return previousFrameStart;
+  }
+
+  /** Returns the part of the table the panel shows, in puzzle coordinates. */
+  public Rectangle getViewArea() {
+    int x = toPuzzleX(0);
+    int y = toPuzzleY(0);
+    return new Rectangle(x, y, toPuzzleX(getWidth()) - x + 1, toPuzzleY(getHeight()) - y + 1);
+  }
+
+  /** Converts a point of the panel to puzzle coordinates. */
+  public Point toPuzzlePoint(Point p) {
+    return new Point(toPuzzleX(p.x), toPuzzleY(p.y));
+  }
+
+  /** Converts a point in puzzle coordinates to a point of the panel. */
+  public Point toPanelPoint(int puzzleX, int puzzleY) {
+    return new Point(Math.round(puzzleX * scale) - viewX, Math.round(puzzleY * scale) - viewY);
   }
 
   @Override
@@ -303,7 +865,8 @@ public class JigsawPiecesPanel extends JPanel {
    * Ideally, the preferred area is roughly 1.5 times the area of the
    * image, and the preferred width is 5/3 of the preferred height.
    * However, if the result would be smaller than the image in either
-   * dimension, it is enlarged to allow the image to fit.
+   * dimension, it is enlarged to allow the image to fit. The size doesn't
+   * depend on the zoom; it is only a hint for the initial window size.
    */
   private void computePreferredSize() {
     int iWidth = piecesBin.getWidth();
@@ -313,14 +876,14 @@ public class JigsawPiecesPanel extends JPanel {
     int height = width * 3 / 5;
     width = Math.max(width, iWidth);
     height = Math.max(height, iHeight);
-    prefSize = new Dimension((int) (width * scale), (int) (height * scale));
+    prefSize = new Dimension(width, height);
   }
 
   // Mouse event handling -------------------------------------------------
 
   protected void mousePressed0(MouseEvent e) {
-    int x = (int) (e.getX() / scale);
-    int y = (int) (e.getY() / scale);
+    int x = toPuzzleX(e.getX());
+    int y = toPuzzleY(e.getY());
 
     this.dragStart = new Point(x, y);
 
@@ -329,12 +892,19 @@ public class JigsawPiecesPanel extends JPanel {
       return;
     }
 
+    if (SwingUtilities.isMiddleMouseButton(e) || SwingUtilities.isRightMouseButton(e)) {
+      dragMode = DragMode.PAN;
+      panPoint = e.getPoint();
+      return;
+    }
+
     // first check if the click is inside the selection rectangle
     if (selectionRectangle != null && selectionRectangle.contains(x,y)) {
       dragMode = DragMode.MOVE_SELECTION_RECTANGLE;
       dragAnchor = selectionRectangle.getLocation();
       // get pieces which are now in the selection rectangle (before moving)
-      this.piecesInSelectionRectangle = piecesBin.getPiecesInRect(selectionRectangle);
+      piecesInSelectionRectangle.clear();
+      piecesBin.getPiecesInRect(selectionRectangle, piecesInSelectionRectangle);
 
       return;
     }
@@ -350,7 +920,7 @@ public class JigsawPiecesPanel extends JPanel {
     }
 
     // no piece grabbed. start selection rectangle
-    selectionRectangle = new Rectangle((int) (e.getX() / scale), (int) (e.getY() / scale), 1, 1);
+    selectionRectangle = new Rectangle(x, y, 1, 1);
     dragMode = DragMode.DRAG_SELECTION_RECTANGLE;
 
   }
@@ -374,6 +944,11 @@ public class JigsawPiecesPanel extends JPanel {
       dragPiece(e);
       return;
     }
+
+    if (dragMode == DragMode.PAN) {
+      panBy(panPoint.x - e.getX(), panPoint.y - e.getY());
+      panPoint = e.getPoint();
+    }
   }
 
   protected void mouseReleased0(MouseEvent e) {
@@ -384,28 +959,21 @@ public class JigsawPiecesPanel extends JPanel {
       finishSelectionRect(e);
     } else if (dragMode == DragMode.MOVE_SELECTION_RECTANGLE){
       // remove selection rectangle if it was not dragged
-      if (dragStart.equals(e.getPoint())) {
+      if (dragStart.x == toPuzzleX(e.getX()) && dragStart.y == toPuzzleY(e.getY())) {
         repaintRectangleScaled(selectionRectangle);
         selectionRectangle = null;
       }
     } else if (dragMode == DragMode.PIECES){
+      invalidateStaticLayer();
       releasePiece();
+    } else if (dragMode == DragMode.PAN) {
+      panPoint = null;
     }
     dragMode = DragMode.NONE;
   }
 
   public Piece getPieceAt(Point p) {
-    int jigsawX = (int) (p.getX() / scale);
-    int jigsawY = (int) (p.getY() / scale);
-    List<Piece> pieces = piecesBin.getPieces();
-    ListIterator<Piece> iter = pieces.listIterator(pieces.size());
-    while (iter.hasPrevious()) {
-      Piece piece = iter.previous();
-      if (piece.contains(jigsawX, jigsawY)) {
-        return piece;
-      }
-    }
-    return null;
+    return piecesBin.getPieceAt(toPuzzleX(p.x), toPuzzleY(p.y));
   }
 
   /**
@@ -413,29 +981,19 @@ public class JigsawPiecesPanel extends JPanel {
    * returned. Else null is returned.
    */
   private Piece grabPiece(MouseEvent e) {
-    int jigsawX = (int) (e.getX() / scale);
-    int jigsawY = (int) (e.getY() / scale);
-    focusPiece = null;
-    List<Piece> pieces = piecesBin.getPieces();
-    ListIterator<Piece> iter = pieces.listIterator(pieces.size());
-    while (focusPiece == null && iter.hasPrevious()) {
-      Piece piece = iter.previous();
-      if (piece.contains(jigsawX, jigsawY)) {
-        focusPiece = piece;
-        // remove piece from whichever position it is currently
-        iter.remove();
-      }
-    }
+    int jigsawX = toPuzzleX(e.getX());
+    int jigsawY = toPuzzleY(e.getY());
+    focusPiece = piecesBin.getPieceAt(jigsawX, jigsawY);
     // if the user clicked a piece
     if (focusPiece != null) {
-      // add the piece to the stack again, this time on top
-      pieces.add(focusPiece);
+      // move the piece to the top of the stack
+      piecesBin.moveToTop(focusPiece);
       if (selectionEnabled || (e.getModifiersEx() & MouseEvent.SHIFT_DOWN_MASK) == MouseEvent.SHIFT_DOWN_MASK) {
         // add or remove a piece from the selection
         selection.toggle(focusPiece);
       } else {
         // select a single piece. so clear and redraw the current selection
-        selection.forEach(piece -> repaintRectangleScaled(piece.getDrawBounds()));
+        repaintRectangleScaled(selection.getDrawBounds(dirtyRectangle));
         selection.clear();
         selection.add(focusPiece);
       }
@@ -452,14 +1010,14 @@ public class JigsawPiecesPanel extends JPanel {
     if (focusPiece == null) {
       return;
     }
-    int jigsawX = (int) (e.getX() / scale);
-    int jigsawY = (int) (e.getY() / scale);
+    int jigsawX = toPuzzleX(e.getX());
+    int jigsawY = toPuzzleY(e.getY());
 
-    Point currentAnchor = selection.getAnchorPoint();
+    long currentAnchor = selection.getAnchorPacked();
 
     // calculate how far the selection was already moved since the start of the drag
-    int startDeltaX = currentAnchor.x - dragAnchor.x;
-    int startDeltaY = currentAnchor.y - dragAnchor.y;
+    int startDeltaX = GeomUtil.x(currentAnchor) - dragAnchor.x;
+    int startDeltaY = GeomUtil.y(currentAnchor) - dragAnchor.y;
 
     // calculate how much the rectangle should be moved since the start of the drag.
     int dragDeltaX = jigsawX - dragStart.x;
@@ -469,21 +1027,30 @@ public class JigsawPiecesPanel extends JPanel {
     int deltaX = dragDeltaX - startDeltaX;
     int deltaY = dragDeltaY - startDeltaY;
 
+    if (staticLayer == null && animator.isEmpty()) {
+      createStaticLayer();
+    }
+    markMotion();
     // repaint current selection
-    selection.forEach(piece -> repaintRectangleScaled(piece.getDrawBounds()));
+    repaintRectangleScaled(selection.getDrawBounds(dirtyRectangle));
     // move selection to new place
     selection.moveBy(deltaX, deltaY, true);
     // repaint moved selection
-    selection.forEach(piece -> repaintRectangleScaled(piece.getDrawBounds()));
+    repaintRectangleScaled(selection.getDrawBounds(dirtyRectangle));
   }
 
-  private void repaintRectangleScaled(Rectangle rect) {
+  /** Repaints an area given in puzzle coordinates. */
+  protected void repaintRectangleScaled(Rectangle rect) {
+    if (GeomUtil.isCleared(rect)) {
+      return;
+    }
     int x = Math.min(rect.x, rect.x + rect.width);
     int y = Math.min(rect.y, rect.y + rect.height);
     int width = Math.abs(rect.width);
     int height = Math.abs(rect.height);
 
-    repaint(0, (int) (x * scale), (int) (y * scale), (int) ((width + 1) * scale), (int) ((height + 1) * scale));
+    repaint(0, (int) Math.floor(x * scale) - viewX, (int) Math.floor(y * scale) - viewY,
+        (int) Math.ceil((width + 1) * scale) + 1, (int) Math.ceil((height + 1) * scale) + 1);
   }
 
   private void releasePiece() {
@@ -510,8 +1077,8 @@ public class JigsawPiecesPanel extends JPanel {
     repaintRectangleScaled(selectionRectangle);
 
     // calculate new selection rectangle
-    int x1 = (int) (e.getX() / scale);
-    int y1 = (int) (e.getY() / scale);
+    int x1 = toPuzzleX(e.getX());
+    int y1 = toPuzzleY(e.getY());
 
     selectionRectangle.width = x1 - selectionRectangle.x;
     selectionRectangle.height = y1 - selectionRectangle.y;
@@ -525,8 +1092,8 @@ public class JigsawPiecesPanel extends JPanel {
     repaintRectangleScaled(selectionRectangle);
 
     // calculate new position in puzzle coordinate system
-    int x1 = (int) (e.getX() / scale);
-    int y1 = (int) (e.getY() / scale);
+    int x1 = toPuzzleX(e.getX());
+    int y1 = toPuzzleY(e.getY());
 
 
     // calculate delta the rectangle was moved since the start of the drag
@@ -546,6 +1113,7 @@ public class JigsawPiecesPanel extends JPanel {
     selectionRectangle.y += deltaY;
     // ...  and pieces
     piecesInSelectionRectangle.moveBy(deltaX, deltaY, true);
+    markMotion();
 
     // repaint new selection rectangle
     repaintRectangleScaled(selectionRectangle);
@@ -600,13 +1168,15 @@ public class JigsawPiecesPanel extends JPanel {
       case PUSH:
         push();
         break;
+      case OVERLAY:
+        setOverlayVisible(!isOverlayVisible());
+        break;
     }
-    }
+  }
 
+  /** Zooms around the center of the panel. */
   private void updateScale(float newScale) {
-    setScale(newScale);
-    revalidate();
-    repaint();
+    zoomAt(newScale, getWidth() / 2, getHeight() / 2);
   }
 
   private void rotatePiece(int amount) {
@@ -636,6 +1206,7 @@ public class JigsawPiecesPanel extends JPanel {
     }
     setBackground(bgColors[bgColor]);
     setClearColor();
+    invalidateStaticLayer();
     repaint();
   }
 
@@ -646,6 +1217,7 @@ public class JigsawPiecesPanel extends JPanel {
     }
     setBackground(bgColors[bgColor]);
     setClearColor();
+    invalidateStaticLayer();
     repaint();
   }
 
@@ -693,51 +1265,25 @@ public class JigsawPiecesPanel extends JPanel {
   }
 
   private void timerAction(ActionEvent e) { // ~60fps
-    long currentTime = System.currentTimeMillis();
-    boolean anyAnimationsRunning = false;
-    Rectangle repaintRectangle = new Rectangle(0, 0, -1, -1);
-
-    // Process all animating pieces
-    Iterator<Piece> iterator = animatingPieces.iterator();
-    while (iterator.hasNext()) {
-      Piece piece = iterator.next();
-      AnimationData data = animationDataMap.get(piece);
-
-      long elapsed = currentTime - data.getStartTime();
-      float progress = Math.min(1f, (float) elapsed / data.getDuration());
-
-      // repaint current position piece
-      repaintRectangle = repaintRectangle.union(piece.getDrawBounds());
-
-      // Apply easing function (quadratic ease-out)
-      progress = easeOut(progress);
-
-      // Calculate current position
-      int currentX = (int) (data.getStartX() + (data.getEndX() - data.getStartX()) * progress);
-      int currentY = (int) (data.getStartY() + (data.getEndY() - data.getStartY()) * progress);
-
-      piece.setCurrentPosition(currentX, currentY);
-
-      // repaint new position piece
-      repaintRectangle = repaintRectangle.union(piece.getDrawBounds());
-
-
-      if (progress >= 1f) {
-        // Animation complete
-        iterator.remove();
-        animationDataMap.remove(piece);
-      } else {
-        anyAnimationsRunning = true;
-      }
-    }
-
-    if (repaintRectangle != null) {
-      repaintRectangleScaled(repaintRectangle);
+    if (!animationFrame(System.nanoTime())) {
+      animationTimer.stop();
     }
+  }
 
-    if (!anyAnimationsRunning) {
-      animationTimer.stop();
+  /**
+   * Moves the animated pieces to their position at the frame time and repaints them with a single rectangle.
+   *
+   * @return true if there are animations left
+   */
+  private boolean animationFrame(long now) {
+    if (animator.isEmpty()) {
+      return false;
     }
+    GeomUtil.clear(dirtyRectangle);
+    boolean anyAnimationsRunning = animator.update(now, dirtyRectangle);
+    repaintRectangleScaled(dirtyRectangle);
+    markMotion();
+    return anyAnimationsRunning;
   }
 
 
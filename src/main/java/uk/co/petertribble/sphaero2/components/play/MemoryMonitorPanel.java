@@ -1,19 +1,40 @@
 package uk.co.petertribble.sphaero2.components.play;
 
+import uk.co.petertribble.sphaero2.model.MemoryAccounting;
+import uk.co.petertribble.sphaero2.model.MemoryBreakdown;
+
 import javax.swing.*;
 import java.awt.*;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.text.DecimalFormat;
 
+/**
+ * Shows the heap usage and, if there is a {@link MemoryAccounting}, the memory
+ * used by the pixel data of the puzzle. The breakdown by category is shown as
+ * tool tip and is available with {@link #getBreakdown()}.
+ */
 public class MemoryMonitorPanel extends JPanel {
+    private static final double MB = 1024 * 1024;
+
     private final JProgressBar memoryBar;
     private final JLabel memoryLabel;
+    private final JLabel pixelLabel;
+    private final MemoryAccounting accounting;
+    private MemoryBreakdown breakdown = new MemoryBreakdown();
     private final Timer updateTimer;
     private final DecimalFormat format = new DecimalFormat("#,##0.0");
     private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
 
     public MemoryMonitorPanel() {
+        this(null);
+    }
+
+    /**
+     * @param accounting counts the pixel data of the puzzle, or null to show only the heap
+     */
+    public MemoryMonitorPanel(MemoryAccounting accounting) {
+        this.accounting = accounting;
         setLayout(new BoxLayout(this, BoxLayout.X_AXIS));
         setBorder(BorderFactory.createEmptyBorder(2, 5, 2, 5));
 
@@ -26,9 +47,16 @@ public class MemoryMonitorPanel extends JPanel {
         memoryLabel.setFont(memoryLabel.getFont().deriveFont(10f));
         memoryLabel.setBorder(BorderFactory.createEmptyBorder(0, 5, 0, 0));
 
+        pixelLabel = new JLabel();
+        pixelLabel.setFont(memoryLabel.getFont());
+        pixelLabel.setBorder(BorderFactory.createEmptyBorder(0, 5, 0, 0));
+
         // Add components
         add(memoryBar);
         add(memoryLabel);
+        if (accounting != null) {
+            add(pixelLabel);
+        }
 
         // Create update timer
         updateTimer = new Timer(1000, e -> updateMemoryUsage());
@@ -58,6 +86,44 @@ public class MemoryMonitorPanel extends JPanel {
         String usedMB = format.format(used / (1024 * 1024));
         String maxMB = format.format(max / (1024 * 1024));
         memoryLabel.setText(usedMB + " / " + maxMB + " MB");
+
+        if (accounting != null) {
+            updateBreakdown(used);
+        }
+    }
+
+    private void updateBreakdown(long used) {
+        breakdown = accounting.measure();
+        pixelLabel.setText("(pixels " + format.format(breakdown.getTotal() / MB) + " MB)");
+
+        StringBuilder tip = new StringBuilder("<html><table>");
+        for (MemoryBreakdown.Category category : MemoryBreakdown.Category.values()) {
+            tip.append("<tr><td>").append(category.getLabel()).append("</td><td align=right>")
+                .append(format.format(breakdown.get(category) / MB)).append(" MB</td></tr>");
+        }
+        tip.append("<tr><td><b>total</b></td><td align=right><b>")
+            .append(format.format(breakdown.getTotal() / MB)).append(" MB</b></td></tr>");
+        tip.append("<tr><td>rest of heap</td><td align=right>")
+            .append(format.format(Math.max(0, used - breakdown.getTotal()) / MB)).append(" MB</td></tr>");
+        tip.append("</table></html>");
+        String text = tip.toString();
+        setToolTipText(text);
+        memoryBar.setToolTipText(text);
+        memoryLabel.setToolTipText(text);
+        pixelLabel.setToolTipText(text);
+    }
+
+    /**
+     * Returns the memory used by the pixel data of the puzzle, by category, as
+     * measured by the last update. Empty if there is no accounting.
+     */
+    public MemoryBreakdown getBreakdown() {
+        return breakdown;
+    }
+
+    /** Measures the memory now instead of waiting for the timer. */
+    public void refresh() {
+        updateMemoryUsage();
     }
 
     public void dispose() {
@@ -0,0 +1,147 @@
+package uk.co.petertribble.sphaero2.components.play;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects timings and counters of the last frames painted by the play panel.
+ * <p>
+ * For each frame the paint time, the number of pieces drawn, the painted area
+ * and the bytes allocated while painting are recorded in ring buffers.
+ * Separately the time an event waits in the queue of the event dispatch
+ * thread is sampled. {@link #describe(int, long)} turns the numbers into lines
+ * of text for the performance overlay.
+ */
+public class PaintStatistics {
+
+  private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+  private final int window;
+  private final long[] paintNanos;
+  private final long[] frameTimes;
+  private final long[] drawn;
+  private final long[] dirtyArea;
+  private final long[] allocated;
+  /** Number of recorded frames, the next frame is stored at count % window. */
+  private long count;
+  private final long[] sorted;
+
+  private long edtLatency;
+  private long maxEdtLatency;
+
+  public PaintStatistics(int window) {
+    this.window = Math.max(1, window);
+    paintNanos = new long[this.window];
+    frameTimes = new long[this.window];
+    drawn = new long[this.window];
+    dirtyArea = new long[this.window];
+    allocated = new long[this.window];
+    sorted = new long[this.window];
+  }
+
+  /**
+   * Returns the bytes allocated by the current thread so far, or -1 if the
+   * JVM can't tell.
+   */
+  public static long allocatedBytes() {
+    if (THREAD_BEAN instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) THREAD_BEAN;
+      if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Records a frame.
+   *
+   * @param start     start of the paint, as returned by {@link System#nanoTime()}
+   * @param nanos     paint time in nano seconds
+   * @param pieces    number of pieces drawn
+   * @param area      painted area in pixels
+   * @param bytes     bytes allocated while painting, or -1 if unknown
+   */
+  public void frame(long start, long nanos, int pieces, long area, long bytes) {
+    int index = (int) (count % window);
+    frameTimes[index] = start;
+    paintNanos[index] = nanos;
+    drawn[index] = pieces;
+    dirtyArea[index] = area;
+    allocated[index] = bytes;
+    count++;
+  }
+
+  /** Records how long an event waited in the queue of the event dispatch thread. */
+  public void edtLatency(long nanos) {
+    edtLatency = nanos;
+    maxEdtLatency = Math.max(maxEdtLatency, nanos);
+  }
+
+  private int size() {
+    return (int) Math.min(count, window);
+  }
+
+  /** Returns the given percentile (0 to 100) of the paint times of the recorded frames. */
+  public long getPaintPercentile(double percentile) {
+    int size = size();
+    if (size == 0) {
+      return 0;
+    }
+    System.arraycopy(paintNanos, 0, sorted, 0, size);
+    Arrays.sort(sorted, 0, size);
+    int index = (int) Math.ceil(percentile / 100 * size) - 1;
+    return sorted[Math.max(0, Math.min(size - 1, index))];
+  }
+
+  /** Returns the number of frames painted in the last second. */
+  public int getFramesPerSecond(long now) {
+    int frames = 0;
+    for (int i = 0; i < size(); i++) {
+      if (now - frameTimes[i] <= 1_000_000_000L) {
+        frames++;
+      }
+    }
+    return frames;
+  }
+
+  private static double average(long[] values, int size) {
+    long sum = 0;
+    int known = 0;
+    for (int i = 0; i < size; i++) {
+      if (values[i] >= 0) {
+        sum += values[i];
+        known++;
+      }
+    }
+    return known == 0 ? -1 : (double) sum / known;
+  }
+
+  /**
+   * Returns the statistics as lines of text.
+   *
+   * @param totalPieces number of pieces in the bin
+   * @param viewArea    area of the panel in pixels
+   */
+  public List<String> describe(int totalPieces, long viewArea) {
+    int size = size();
+    List<String> lines = new ArrayList<>();
+    lines.add(String.format("paint ms  p50 %.1f  p95 %.1f  p99 %.1f  max %.1f",
+        getPaintPercentile(50) / 1e6, getPaintPercentile(95) / 1e6,
+        getPaintPercentile(99) / 1e6, getPaintPercentile(100) / 1e6));
+    lines.add(String.format("frames/s  %d", getFramesPerSecond(System.nanoTime())));
+    double pieces = Math.max(0, average(drawn, size));
+    lines.add(String.format("pieces    drawn %.0f of %d, culled %.0f", pieces, totalPieces,
+        Math.max(0, totalPieces - pieces)));
+    double area = Math.max(0, average(dirtyArea, size));
+    lines.add(String.format("dirty     %,.0f px/frame (%.1f%% of view)", area,
+        viewArea == 0 ? 0 : area * 100 / viewArea));
+    double bytes = average(allocated, size);
+    lines.add(bytes < 0 ? "alloc     n/a" : String.format("alloc     %,.1f KB/frame", bytes / 1024));
+    lines.add(String.format("EDT lag   %.1f ms (max %.1f)", edtLatency / 1e6, maxEdtLatency / 1e6));
+    return lines;
+  }
+}
@@ -0,0 +1,187 @@
+package uk.co.petertribble.sphaero2.components.play;
+
+import uk.co.petertribble.sphaero2.model.GeomUtil;
+import uk.co.petertribble.sphaero2.model.Piece;
+
+import java.awt.*;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Moves the drawn position of pieces to their puzzle position over time.
+ * <p>
+ * The animations are kept in parallel primitive arrays. The index of a piece
+ * is looked up by its id, so starting, retargeting and finishing an animation
+ * are O(1). Positions are interpolated with {@link System#nanoTime()} once
+ * per frame by {@link #update(long, Rectangle)}, which also collects the area
+ * to repaint in a single rectangle.
+ */
+public class PieceAnimator {
+
+  private Piece[] pieces = new Piece[16];
+  private int[] startX = new int[16];
+  private int[] startY = new int[16];
+  private int[] endX = new int[16];
+  private int[] endY = new int[16];
+  private long[] startTime = new long[16];
+  private long[] duration = new long[16];
+  private int count;
+  /** Index of the animation of each piece by piece id, -1 if the piece is not animated. */
+  private int[] indexById = new int[0];
+
+  private final Rectangle pieceBounds = new Rectangle();
+  private final List<Piece> pieceList = new AbstractList<>() {
+    @Override
+    public Piece get(int index) {
+      if (index >= count) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+      }
+      return pieces[index];
+    }
+
+    @Override
+    public int size() {
+      return count;
+    }
+  };
+
+  /**
+   * Animates the piece from its current drawn position to the given end
+   * position. When the piece is already animated, its animation is retargeted
+   * and starts again from where the piece is now.
+   *
+   * @param piece    the piece to animate
+   * @param toX      end x position
+   * @param toY      end y position
+   * @param nanos    duration in nano seconds
+   * @param now      start time, as returned by {@link System#nanoTime()}
+   */
+  public void animate(Piece piece, int toX, int toY, long nanos, long now) {
+    int index = indexOf(piece);
+    if (index < 0) {
+      index = count++;
+      ensureCapacity(count);
+      pieces[index] = piece;
+      setIndex(piece.getId(), index);
+    }
+    startX[index] = piece.getCurrentX();
+    startY[index] = piece.getCurrentY();
+    endX[index] = toX;
+    endY[index] = toY;
+    startTime[index] = now;
+    duration[index] = Math.max(1, nanos);
+  }
+
+  /**
+   * Moves all animated pieces to their position at the given time. Finished
+   * animations are removed.
+   *
+   * @param now   frame time, as returned by {@link System#nanoTime()}
+   * @param dirty gets the union of the old and new draw bounds of the moved pieces
+   * @return true if there are animations left
+   */
+  public boolean update(long now, Rectangle dirty) {
+    int i = 0;
+    while (i < count) {
+      Piece piece = pieces[i];
+      float progress = Math.min(1f, (float) (now - startTime[i]) / duration[i]);
+      progress = easeOut(Math.max(0f, progress));
+      int x = (int) (startX[i] + (endX[i] - startX[i]) * progress);
+      int y = (int) (startY[i] + (endY[i] - startY[i]) * progress);
+      if (x != piece.getCurrentX() || y != piece.getCurrentY()) {
+        GeomUtil.union(dirty, piece.getDrawBounds(pieceBounds));
+        piece.setCurrentPosition(x, y);
+        GeomUtil.union(dirty, piece.getDrawBounds(pieceBounds));
+      }
+      if (progress >= 1f) {
+        // the last animation takes the place of the finished one
+        removeAt(i);
+      } else {
+        i++;
+      }
+    }
+    return count > 0;
+  }
+
+  /** Quadratic ease-out. */
+  private static float easeOut(float t) {
+    return 1 - (1 - t) * (1 - t);
+  }
+
+  public boolean isAnimating(Piece piece) {
+    return indexOf(piece) >= 0;
+  }
+
+  public boolean isEmpty() {
+    return count == 0;
+  }
+
+  public int size() {
+    return count;
+  }
+
+  /** Returns a live, read only view of the animated pieces. */
+  public List<Piece> getPieces() {
+    return pieceList;
+  }
+
+  /** Stops all animations. The pieces stay where they are drawn now. */
+  public void clear() {
+    while (count > 0) {
+      removeAt(count - 1);
+    }
+  }
+
+  private int indexOf(Piece piece) {
+    int id = piece.getId();
+    if (id < 0 || id >= indexById.length) {
+      return -1;
+    }
+    int index = indexById[id];
+    // the id may have been reused by another piece (joined pieces)
+    return index >= 0 && pieces[index] == piece ? index : -1;
+  }
+
+  private void setIndex(int id, int index) {
+    if (id < 0) {
+      return;
+    }
+    if (id >= indexById.length) {
+      int oldLength = indexById.length;
+      indexById = Arrays.copyOf(indexById, Math.max(id + 1, oldLength * 2));
+      Arrays.fill(indexById, oldLength, indexById.length, -1);
+    }
+    indexById[id] = index;
+  }
+
+  private void removeAt(int index) {
+    setIndex(pieces[index].getId(), -1);
+    int last = --count;
+    if (index != last) {
+      pieces[index] = pieces[last];
+      startX[index] = startX[last];
+      startY[index] = startY[last];
+      endX[index] = endX[last];
+      endY[index] = endY[last];
+      startTime[index] = startTime[last];
+      duration[index] = duration[last];
+      setIndex(pieces[index].getId(), index);
+    }
+    pieces[last] = null;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= pieces.length) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, pieces.length * 2);
+    pieces = Arrays.copyOf(pieces, newCapacity);
+    startX = Arrays.copyOf(startX, newCapacity);
+    startY = Arrays.copyOf(startY, newCapacity);
+    endX = Arrays.copyOf(endX, newCapacity);
+    endY = Arrays.copyOf(endY, newCapacity);
+    startTime = Arrays.copyOf(startTime, newCapacity);
+    duration = Arrays.copyOf(duration, newCapacity);
+  }
+}
@@ -3,31 +3,60 @@ package uk.co.petertribble.sphaero2.components.play;
 import uk.co.petertribble.sphaero2.components.GameState;
 import uk.co.petertribble.sphaero2.components.GameStateContext;
 import uk.co.petertribble.sphaero2.model.Jigsaw;
+import uk.co.petertribble.sphaero2.model.MemoryAccounting;
+import uk.co.petertribble.sphaero2.model.MemoryBudget;
+import uk.co.petertribble.sphaero2.model.PixelArena;
 
 import javax.swing.*;
 import javax.swing.event.AncestorEvent;
 import javax.swing.event.AncestorListener;
 import java.awt.*;
+import java.util.concurrent.TimeUnit;
 
 public class PlayState implements GameState {
+    /** Pieces which were not used for this time are compressed. */
+    private static final long IDLE_TIME = TimeUnit.SECONDS.toNanos(30);
+    /** Time the compression may take per timer tick. */
+    private static final long COMPRESS_BUDGET = TimeUnit.MILLISECONDS.toNanos(4);
+
+    private Jigsaw jigsaw;
     private JigsawPanel jigsawPanel;
     private TimeLabel timeLabel;
     private JLabel progressLabel;
     private JPanel panel;
+    private Timer compressTimer;
+    private MemoryMonitorPanel memoryMonitor;
+    private MemoryBudget memoryBudget;
 
     @Override
     public void enterState(GameStateContext context) {
-        Jigsaw jigsaw = new Jigsaw(context.getJigsawParam(), context.getImage(), context.getPieces());
+        this.jigsaw = new Jigsaw(context.getJigsawParam(), context.getImage(), context.getPieces());
+        PixelArena pixelArena = PixelArena.fromSystemProperty();
+        if (pixelArena != null) {
+            jigsaw.usePixelArena(pixelArena);
+        }
         this.jigsawPanel = new JigsawPanel(jigsaw);
 
+        MemoryAccounting accounting = new MemoryAccounting();
+        accounting.addSource(jigsaw);
+        accounting.addSource(jigsawPanel);
+        this.memoryBudget = MemoryBudget.fromSystemProperty(accounting);
+
         this.panel = new JPanel(new BorderLayout());
-        panel.add(new JScrollPane(jigsawPanel, JScrollPane.VERTICAL_SCROLLBAR_ALWAYS, JScrollPane.HORIZONTAL_SCROLLBAR_ALWAYS));
-        panel.add(createStatusBar(jigsaw), BorderLayout.SOUTH);
+        panel.add(jigsawPanel);
+        panel.add(createStatusBar(jigsaw, accounting), BorderLayout.SOUTH);
         panel.add(createToolBar(), BorderLayout.NORTH);
 
         jigsawPanel.setProgressLabel(progressLabel);
         jigsawPanel.setTimeLabel(timeLabel);
 
+        compressTimer = new Timer(1000, e -> {
+            jigsaw.getPieces().compressIdlePieces(IDLE_TIME, COMPRESS_BUDGET);
+            memoryBudget.enforce(jigsaw.getPieces(), jigsawPanel.getViewArea(),
+                    jigsawPanel.getPreviousFrameStart(), COMPRESS_BUDGET);
+        });
+        compressTimer.start();
+
         SwingUtilities.invokeLater(() -> {
             this.jigsawPanel.animateAllToPuzzlePositions(500);
         });
@@ -51,7 +80,16 @@ public class PlayState implements GameState {
 
     @Override
     public void exitState() {
-
+        if (compressTimer != null) {
+            compressTimer.stop();
+        }
+        if (memoryMonitor != null) {
+            memoryMonitor.dispose();
+        }
+        if (jigsaw != null) {
+            jigsaw.dispose();
+            jigsaw = null;
+        }
     }
 
     @Override
@@ -59,7 +97,7 @@ public class PlayState implements GameState {
         return panel;
     }
 
-    private JPanel createStatusBar(Jigsaw jigsaw) {
+    private JPanel createStatusBar(Jigsaw jigsaw, MemoryAccounting accounting) {
         JPanel statusBar = new JPanel();
         statusBar.setLayout(new FlowLayout(FlowLayout.RIGHT));
         this.timeLabel = new TimeLabel();
@@ -71,11 +109,26 @@ public class PlayState implements GameState {
         statusBar.add(Box.createHorizontalStrut(2));
         statusBar.add(save);
 
-        statusBar.add(new MemoryMonitorPanel());
+        statusBar.add(createQualityLabel(jigsawPanel.getQualityGovernor()));
+        this.memoryMonitor = new MemoryMonitorPanel(accounting);
+        statusBar.add(memoryMonitor);
 
         return statusBar;
     }
 
+    /** Shows the quality the panel is painted with. */
+    private JLabel createQualityLabel(QualityGovernor governor) {
+        JLabel qualityLabel = new JLabel();
+        Runnable update = () -> {
+            qualityLabel.setText("Quality: " + governor.getQuality().getLabel() + (governor.isAdaptive() ? "" : " (fixed)"));
+            qualityLabel.setToolTipText(String.format("Average paint time %.1f ms, budget %d ms",
+                governor.getAverageNanos() / 1_000_000.0, governor.getBudgetNanos() / 1_000_000));
+        };
+        update.run();
+        governor.addChangeListener(e -> update.run());
+        return qualityLabel;
+    }
+
     private JToolBar createToolBar() {
         JToolBar toolbar = new JToolBar();
 
@@ -85,6 +138,7 @@ public class PlayState implements GameState {
         toolbar.add(new JButton(new ToolbarAction("clear", e -> jigsawPanel.clearSelection())));
         toolbar.add(new JButton(new ToolbarAction("arrange", e -> jigsawPanel.arrange())));
         toolbar.add(new JButton(new ToolbarAction("repaint", e -> jigsawPanel.repaintPieces())));
+        toolbar.add(new JButton(new ToolbarAction("stats", e -> jigsawPanel.setOverlayVisible(!jigsawPanel.isOverlayVisible()))));
 
         return toolbar;
     }
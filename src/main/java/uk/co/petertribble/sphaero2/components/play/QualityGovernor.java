@@ -0,0 +1,184 @@
+package uk.co.petertribble.sphaero2.components.play;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns visual effects down when painting gets too slow and up again when
+ * there is headroom.
+ * <p>
+ * The play panel reports how long each paint took. The paint times are
+ * averaged; when the average is over the frame budget the quality is lowered
+ * by one step, and when it stayed well below the budget for a while it is
+ * raised by one step. After a change the governor waits some frames before it
+ * changes the quality again, so it doesn't jump between two steps.
+ * <p>
+ * The frame budget in milliseconds is set with the system property
+ * <code>sphaero2.quality.budget</code>. <code>sphaero2.quality</code> fixes
+ * the quality to one of the {@link Quality} names instead of adapting it.
+ */
+public class QualityGovernor {
+
+  public static final String PROPERTY = "sphaero2.quality";
+  public static final String BUDGET_PROPERTY = "sphaero2.quality.budget";
+  public static final int DEFAULT_BUDGET_MS = 16;
+
+  /** Weight of a new paint time in the average. */
+  private static final double SMOOTHING = 0.1;
+  /** Frames to wait after a change before the quality is changed again. */
+  private static final int COOLDOWN_FRAMES = 30;
+  /** Frames well below the budget before the quality is raised. */
+  private static final int HEADROOM_FRAMES = 120;
+
+  /** Steps of visual quality, best first. */
+  public enum Quality {
+    /** All effects. */
+    FULL("full", true, true, 0, Integer.MAX_VALUE, true),
+    /** Selected pieces are outlined without the shadow. */
+    OUTLINE("outline", false, true, 0, Integer.MAX_VALUE, true),
+    /** No smooth scaling, zoomed out pieces are drawn from the next smaller image and few pieces are animated. */
+    COARSE("coarse", false, false, 1, 200, true),
+    /** Like coarse, but pieces jump to their place and the finished puzzle appears at once. */
+    MINIMAL("minimal", false, false, 1, 0, false);
+
+    private final String label;
+    private final boolean shadow;
+    private final boolean smoothScaling;
+    private final int levelBias;
+    private final int maxAnimations;
+    private final boolean fadeIn;
+
+    Quality(String label, boolean shadow, boolean smoothScaling, int levelBias, int maxAnimations, boolean fadeIn) {
+      this.label = label;
+      this.shadow = shadow;
+      this.smoothScaling = smoothScaling;
+      this.levelBias = levelBias;
+      this.maxAnimations = maxAnimations;
+      this.fadeIn = fadeIn;
+    }
+
+    public String getLabel() {
+      return label;
+    }
+
+    /** Returns true if the highlight of selected pieces has a shadow. */
+    public boolean isShadow() {
+      return shadow;
+    }
+
+    /** Returns true if scaled pieces are interpolated when the view is at rest. */
+    public boolean isSmoothScaling() {
+      return smoothScaling;
+    }
+
+    /** Returns how many levels smaller the reduced images are than the scale needs. */
+    public int getLevelBias() {
+      return levelBias;
+    }
+
+    /** Returns how many pieces may be animated at once. The others jump to their place. */
+    public int getMaxAnimations() {
+      return maxAnimations;
+    }
+
+    /** Returns true if the finished image fades in over the last piece. */
+    public boolean isFadeIn() {
+      return fadeIn;
+    }
+  }
+
+  private final long budgetNanos;
+  private final boolean adaptive;
+  private final List<ChangeListener> listeners = new ArrayList<>();
+  private Quality quality;
+  private double averageNanos;
+  private int framesSinceChange;
+  private int headroomFrames;
+
+  /**
+   * Creates a governor.
+   *
+   * @param budgetMs frame budget in milliseconds
+   * @param fixed    quality to keep, or null to adapt the quality
+   */
+  public QualityGovernor(int budgetMs, Quality fixed) {
+    this.budgetNanos = Math.max(1, budgetMs) * 1_000_000L;
+    this.adaptive = fixed == null;
+    this.quality = fixed == null ? Quality.FULL : fixed;
+  }
+
+  /** Returns a governor as configured by the system properties. */
+  public static QualityGovernor fromSystemProperty() {
+    Quality fixed = null;
+    String name = System.getProperty(PROPERTY);
+    if (name != null && !"auto".equalsIgnoreCase(name)) {
+      for (Quality quality : Quality.values()) {
+        if (quality.getLabel().equalsIgnoreCase(name)) {
+          fixed = quality;
+        }
+      }
+    }
+    return new QualityGovernor(Integer.getInteger(BUDGET_PROPERTY, DEFAULT_BUDGET_MS), fixed);
+  }
+
+  public Quality getQuality() {
+    return quality;
+  }
+
+  public boolean isAdaptive() {
+    return adaptive;
+  }
+
+  public long getBudgetNanos() {
+    return budgetNanos;
+  }
+
+  /** Returns the average paint time in nano seconds. */
+  public long getAverageNanos() {
+    return (long) averageNanos;
+  }
+
+  /**
+   * Reports the time a paint took.
+   *
+   * @param nanos paint time in nano seconds
+   */
+  public void frameRendered(long nanos) {
+    averageNanos = averageNanos == 0 ? nanos : averageNanos + (nanos - averageNanos) * SMOOTHING;
+    if (!adaptive) {
+      return;
+    }
+    framesSinceChange++;
+    headroomFrames = averageNanos < budgetNanos / 3 ? headroomFrames + 1 : 0;
+    if (framesSinceChange < COOLDOWN_FRAMES) {
+      return;
+    }
+    Quality[] steps = Quality.values();
+    if (averageNanos > budgetNanos && quality.ordinal() < steps.length - 1) {
+      setQuality(steps[quality.ordinal() + 1]);
+    } else if (headroomFrames >= HEADROOM_FRAMES && quality.ordinal() > 0) {
+      setQuality(steps[quality.ordinal() - 1]);
+    }
+  }
+
+  private void setQuality(Quality quality) {
+    this.quality = quality;
+    framesSinceChange = 0;
+    headroomFrames = 0;
+    ChangeEvent event = new ChangeEvent(this);
+    for (ChangeListener listener : listeners) {
+      listener.stateChanged(event);
+    }
+  }
+
+  /** Adds a listener which is called when the quality changes. */
+  public void addChangeListener(ChangeListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeChangeListener(ChangeListener listener) {
+    listeners.remove(listener);
+  }
+}
@@ -0,0 +1,206 @@
+package uk.co.petertribble.sphaero2.components.play;
+
+import uk.co.petertribble.sphaero2.model.GeomUtil;
+
+import javax.swing.*;
+import java.awt.*;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongPredicate;
+
+/**
+ * Draws a component at most once per frame.
+ * <p>
+ * Input handlers and animations only change state and mark areas as dirty
+ * with {@link #addDirtyRegion(int, int, int, int)}. All dirty areas of a
+ * frame are merged into one rectangle. A render thread wakes up when there is
+ * something to draw, waits for the next frame time and then paints the merged
+ * area on the event dispatch thread with
+ * {@link JComponent#paintImmediately(Rectangle)}. The render thread waits for
+ * the frame to finish, so there is never more than one frame queued on the
+ * event dispatch thread. The thread sleeps while nothing changes.
+ * <p>
+ * Active rendering is off by default. It is switched on by setting the system
+ * property <code>sphaero2.activeRendering</code> to <code>true</code>; the
+ * frame rate is set with <code>sphaero2.fps</code>.
+ */
+public class RenderLoop {
+
+  public static final String PROPERTY = "sphaero2.activeRendering";
+  public static final String FPS_PROPERTY = "sphaero2.fps";
+  public static final int DEFAULT_FPS = 60;
+
+  private final JComponent component;
+  private final long frameNanos;
+  /** Called on the event dispatch thread before each frame is painted, with the frame time. */
+  private final LongPredicate frameTask;
+  private final Object lock = new Object();
+  /** Area to paint in the next frame. Guarded by lock. */
+  private final Rectangle dirty = new Rectangle();
+  /** Area painted in the current frame, only used on the event dispatch thread. */
+  private final Rectangle frameArea = new Rectangle();
+  /** True when the next frame has to run the frame task. Guarded by lock. */
+  private boolean taskRequested;
+  /** The current render thread, null when stopped. Each thread runs while it is the current one. */
+  private volatile Thread thread;
+
+  /**
+   * Creates a render loop for the component.
+   *
+   * @param component the component to paint
+   * @param fps       target frame rate
+   * @param frameTask called once per frame before painting, with the frame
+   *                  time as returned by {@link System#nanoTime()}. Returns
+   *                  true if it needs another frame.
+   */
+  public RenderLoop(JComponent component, int fps, LongPredicate frameTask) {
+    this.component = component;
+    this.frameNanos = 1_000_000_000L / Math.max(1, fps);
+    this.frameTask = frameTask;
+    GeomUtil.clear(dirty);
+  }
+
+  /**
+   * Returns a new render loop for the component as configured by the system
+   * properties, or null if active rendering is disabled.
+   */
+  public static RenderLoop fromSystemProperty(JComponent component, LongPredicate frameTask) {
+    if (!Boolean.getBoolean(PROPERTY)) {
+      return null;
+    }
+    return new RenderLoop(component, Integer.getInteger(FPS_PROPERTY, DEFAULT_FPS), frameTask);
+  }
+
+  /** Starts the render thread. Does nothing if it is already running. */
+  public void start() {
+    synchronized (lock) {
+      if (thread != null) {
+        return;
+      }
+      Thread renderThread = new Thread(this::run, "sphaero2-render");
+      renderThread.setDaemon(true);
+      thread = renderThread;
+      renderThread.start();
+    }
+  }
+
+  /**
+   * Stops the render thread and waits for it to end. Pending dirty areas are
+   * dropped. The thread is interrupted, so this can be called on the event
+   * dispatch thread while the thread waits for a frame.
+   */
+  public void stop() {
+    Thread renderThread;
+    synchronized (lock) {
+      renderThread = thread;
+      thread = null;
+      GeomUtil.clear(dirty);
+      taskRequested = false;
+      lock.notifyAll();
+    }
+    if (renderThread == null || renderThread == Thread.currentThread()) {
+      return;
+    }
+    renderThread.interrupt();
+    boolean interrupted = false;
+    while (renderThread.isAlive()) {
+      try {
+        renderThread.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public boolean isRunning() {
+    return thread != null;
+  }
+
+  /** Marks an area of the component (in component coordinates) to be painted in the next frame. */
+  public void addDirtyRegion(int x, int y, int width, int height) {
+    if (width <= 0 || height <= 0) {
+      return;
+    }
+    synchronized (lock) {
+      GeomUtil.union(dirty, x, y, width, height);
+      lock.notifyAll();
+    }
+  }
+
+  /** Requests a frame which runs the frame task, even if nothing is dirty. */
+  public void requestFrame() {
+    synchronized (lock) {
+      taskRequested = true;
+      lock.notifyAll();
+    }
+  }
+
+  /** Returns true if there are areas which were not painted yet. */
+  public boolean hasPendingFrame() {
+    synchronized (lock) {
+      return !GeomUtil.isCleared(dirty);
+    }
+  }
+
+  private void run() {
+    Thread self = Thread.currentThread();
+    long lastFrame = System.nanoTime() - frameNanos;
+    while (thread == self) {
+      synchronized (lock) {
+        while (thread == self && !taskRequested && GeomUtil.isCleared(dirty)) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }
+      if (thread != self) {
+        break;
+      }
+      // pace the frames. changes which come in while waiting are painted in this frame
+      long wait = lastFrame + frameNanos - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      if (thread != self) {
+        break;
+      }
+      lastFrame = System.nanoTime();
+      try {
+        SwingUtilities.invokeAndWait(() -> renderFrame(self));
+      } catch (InterruptedException e) {
+        return;
+      } catch (InvocationTargetException e) {
+        // don't stop rendering because of a single failed frame
+        e.getCause().printStackTrace();
+      }
+    }
+  }
+
+  /** Runs the frame task and paints the dirty area. Called on the event dispatch thread. */
+  private void renderFrame(Thread renderThread) {
+    boolean runTask;
+    synchronized (lock) {
+      if (thread != renderThread) {
+        // queued by a thread which was stopped in the meantime
+        return;
+      }
+      runTask = taskRequested;
+      taskRequested = false;
+    }
+    if (runTask && frameTask.test(System.nanoTime())) {
+      requestFrame();
+    }
+    synchronized (lock) {
+      frameArea.setBounds(dirty);
+      GeomUtil.clear(dirty);
+    }
+    if (!GeomUtil.isCleared(frameArea) && component.isShowing()) {
+      component.paintImmediately(frameArea);
+    }
+  }
+}
@@ -51,6 +51,8 @@ public class SaveAction extends AbstractAction {
                     writer.println("cutter: " + jigsaw.getParams().getCutter().getName());
                     writer.println("# piece: id, imageX, imageY, imageWidth, imageHeight, puzzleX, puzzleY, rotation, multipieceid, neighbours (list of ids)");
                     writer.println("# multipiece: id, imageX, imageY, imageWidth, imageHeight, puzzleX, puzzleY, rotation");
+                    // one buffer for the pixels of all pieces
+                    int[] data = new int[0];
                     for (Piece piece : jigsaw.getPieces().getPieces()) {
                         for (Piece subPiece : piece.getSubs()) {
                             writer.println("piece: " + subPiece.getId() + ", "
@@ -62,8 +64,12 @@ public class SaveAction extends AbstractAction {
                                     + subPiece.getNeighbors().stream().map(Piece::getId).map(String::valueOf).collect(Collectors.joining(","))
                             );
 
-                            int[] data = subPiece.getData();
-                            piecesData.writeInts(subPiece.getData(), 0, data.length);
+                            int length = subPiece.getImageWidth() * subPiece.getImageHeight();
+                            if (data.length < length) {
+                                data = new int[length];
+                            }
+                            subPiece.copyOrigData(data);
+                            piecesData.writeInts(data, 0, length);
                         }
                         if (piece instanceof MultiPiece) {
                             MultiPiece subPiece = (MultiPiece) piece;
@@ -0,0 +1,167 @@
+package uk.co.petertribble.sphaero2.components.play;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Paints a large area in tiles on several threads.
+ * <p>
+ * The area is split into square tiles. For each tile the painter first
+ * prepares a job on the calling thread, typically the list of pieces in the
+ * tile from the spatial index. Then all tiles are rasterized into offscreen
+ * images on a {@link ForkJoinPool}, and finally the images are copied to the
+ * target graphics on the calling thread. The calling thread waits for the
+ * workers, so the painter can read its state without locks while the tiles
+ * are rasterized.
+ * <p>
+ * Tiled rendering is off by default. It is switched on by setting the system
+ * property <code>sphaero2.tiledRendering</code> to <code>true</code>; the
+ * size of a tile is set with <code>sphaero2.tileSize</code>.
+ *
+ * @param <T> the type of the job of a tile
+ */
+public class TiledRenderer<T> {
+
+  public static final String PROPERTY = "sphaero2.tiledRendering";
+  public static final String TILE_SIZE_PROPERTY = "sphaero2.tileSize";
+  public static final int DEFAULT_TILE_SIZE = 256;
+
+  /**
+   * Paints the tiles.
+   *
+   * @param <T> the type of the job of a tile
+   */
+  public interface TilePainter<T> {
+    /**
+     * Prepares the job of a tile. Called on the calling thread, one tile after the other.
+     *
+     * @param tile area of the tile, in target coordinates
+     * @param job  the job this tile had the last time, or null. It can be reused.
+     * @return the job of the tile
+     */
+    T prepare(Rectangle tile, T job);
+
+    /**
+     * Paints a tile. Called on a worker thread, possibly for several tiles at
+     * once, so it must only read; everything it draws is created in
+     * {@link #prepare(Rectangle, Object)}.
+     *
+     * @param g    graphics of the tile image, translated to target coordinates and clipped to the tile
+     * @param tile area of the tile, in target coordinates
+     * @param job  the job of the tile
+     */
+    void paint(Graphics2D g, Rectangle tile, T job);
+  }
+
+  private final ForkJoinPool pool;
+  private final int tileSize;
+  // tiles, images and jobs by index, reused between paints
+  private final List<Tile<T>> tiles = new ArrayList<>();
+  private final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+
+  public TiledRenderer(ForkJoinPool pool, int tileSize) {
+    this.pool = pool;
+    this.tileSize = Math.max(16, tileSize);
+  }
+
+  /**
+   * Returns a new tiled renderer on the common pool as configured by the
+   * system properties, or null if tiled rendering is disabled or there is
+   * only one processor.
+   */
+  public static <T> TiledRenderer<T> fromSystemProperty() {
+    if (!Boolean.getBoolean(PROPERTY) || ForkJoinPool.getCommonPoolParallelism() < 2) {
+      return null;
+    }
+    return new TiledRenderer<>(ForkJoinPool.commonPool(), Integer.getInteger(TILE_SIZE_PROPERTY, DEFAULT_TILE_SIZE));
+  }
+
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /** Returns true if the area is large enough to be worth splitting. */
+  public boolean isWorthSplitting(Rectangle area) {
+    return (long) area.width * area.height >= 2L * tileSize * tileSize;
+  }
+
+  /**
+   * Paints the area.
+   *
+   * @param g       target graphics, not transformed
+   * @param area    area to paint, in target coordinates
+   * @param painter painter of the tiles
+   */
+  public void paint(Graphics g, Rectangle area, TilePainter<T> painter) {
+    int columns = (area.width + tileSize - 1) / tileSize;
+    int rows = (area.height + tileSize - 1) / tileSize;
+    int count = columns * rows;
+    while (tiles.size() < count) {
+      tiles.add(new Tile<>(tileSize));
+    }
+
+    // prepare the jobs one after the other, so the painter needs no locks
+    for (int i = 0; i < count; i++) {
+      Tile<T> tile = tiles.get(i);
+      int x = area.x + (i % columns) * tileSize;
+      int y = area.y + (i / columns) * tileSize;
+      tile.bounds.setBounds(x, y, Math.min(tileSize, area.x + area.width - x), Math.min(tileSize, area.y + area.height - y));
+      tile.job = painter.prepare(tile.bounds, tile.job);
+    }
+
+    tasks.clear();
+    for (int i = 0; i < count; i++) {
+      Tile<T> tile = tiles.get(i);
+      tasks.add(pool.submit(() -> tile.rasterize(painter)));
+    }
+    for (ForkJoinTask<?> task : tasks) {
+      task.join();
+    }
+    tasks.clear();
+
+    for (int i = 0; i < count; i++) {
+      Tile<T> tile = tiles.get(i);
+      Rectangle bounds = tile.bounds;
+      g.drawImage(tile.image, bounds.x, bounds.y, bounds.x + bounds.width, bounds.y + bounds.height,
+          0, 0, bounds.width, bounds.height, null);
+    }
+  }
+
+  /** Returns the memory used by the tile images. */
+  public long getByteSize() {
+    return tiles.size() * (long) tileSize * tileSize * 4;
+  }
+
+  /** Throws away the tile images. */
+  public void clear() {
+    for (Tile<T> tile : tiles) {
+      tile.image.flush();
+    }
+    tiles.clear();
+  }
+
+  private static class Tile<T> {
+    final BufferedImage image;
+    final Rectangle bounds = new Rectangle();
+    T job;
+
+    Tile(int size) {
+      image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+    }
+
+    void rasterize(TilePainter<T> painter) {
+      Graphics2D g = image.createGraphics();
+      try {
+        g.setClip(0, 0, bounds.width, bounds.height);
+        g.translate(-bounds.x, -bounds.y);
+        painter.paint(g, bounds, job);
+      } finally {
+        g.dispose();
+      }
+    }
+  }
+}
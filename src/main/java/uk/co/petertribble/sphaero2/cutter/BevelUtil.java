@@ -85,9 +85,22 @@ public class BevelUtil {
             // No bevel if size is 0 or negative
             return data;
         }
-
         int[] newData = new int[data.length];
-        System.arraycopy(data, 0, newData, 0, data.length);
+        bevel(data, newData, width, height, bevelSize);
+        return newData;
+    }
+
+    /**
+     * Bevels the data into the destination array. Each pixel is only read
+     * before it is written, so the destination may be the data array itself.
+     */
+    public static void bevel(int[] data, int[] newData, int width, int height, int bevelSize) {
+        if (newData != data) {
+            System.arraycopy(data, 0, newData, 0, data.length);
+        }
+        if (bevelSize <= 0) {
+            return;
+        }
 
         // First pass: find all edge pixels
         boolean[] isEdge = new boolean[data.length];
@@ -138,8 +151,6 @@ public class BevelUtil {
                 }
             }
         }
-
-        return newData;
     }
 
     private static boolean isAdjacentToTransparent(int[] data, int width, int height, int x, int y) {
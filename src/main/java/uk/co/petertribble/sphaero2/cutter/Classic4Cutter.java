@@ -212,8 +212,10 @@ public class Classic4Cutter extends JigsawCutter {
 
     int rotation = 0; //((int) (Math.random() * 4)) * 90;
 
-    return new Piece(pieceNum, data, minX, minY, width, height,
+    Piece piece = new Piece(pieceNum, data, minX, minY, width, height,
         tWidth, tHeight, rotation);
+    piece.setOutline(path);
+    return piece;
   }
 
   private void mask(int[] data, GeneralPath path,
@@ -158,8 +158,10 @@ public class HexCutter extends JigsawCutter {
     // int rotation = ((int) (Math.random() * 6)) * 60;
     int rotation = 0;
 
-    return new Piece(hex.id, data, minX, minY, width, height,
+    Piece piece = new Piece(hex.id, data, minX, minY, width, height,
         tWidth, tHeight, rotation);
+    piece.setOutline(path);
+    return piece;
   }
 
   private void mask(int[] data, Path2D path, int minX, int minY, int width, int height) {
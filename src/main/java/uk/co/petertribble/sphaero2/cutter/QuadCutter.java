@@ -118,9 +118,13 @@ public class QuadCutter extends JigsawCutter {
     maskOutside(data, sw, nw, minX, minY, width, height);
 
     int rotation = ((int) (Math.random() * 4)) * 90;
-    return
+    Piece piece =
         new Piece(pieceNum, data, minX, minY, width, height, tWidth, tHeight,
             rotation);
+    piece.setOutline(new Polygon(
+        new int[]{nw.x, ne.x, se.x, sw.x},
+        new int[]{nw.y, ne.y, se.y, sw.y}, 4));
+    return piece;
   }
 
   private void maskOutside(int[] data, Point p1, Point p2,
@@ -3,6 +3,7 @@ package uk.co.petertribble.sphaero2.cutter;
 import uk.co.petertribble.sphaero2.JigUtil;
 import uk.co.petertribble.sphaero2.model.Piece;
 
+import java.awt.*;
 import java.awt.image.BufferedImage;
 
 /**
@@ -53,6 +54,7 @@ public class SquareCutter extends JigsawCutter {
             getImageData(image, x1, y1, pieceW, pieceH),
             x1, y1, pieceW, pieceH,
             width, height, rotation);
+        matrix[i][j].setOutline(new Rectangle(x1, y1, pieceW, pieceH));
         updateProgress();
         statusListener.ejectPiece(matrix[i][j]);
 
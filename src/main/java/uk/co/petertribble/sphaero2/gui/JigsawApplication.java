@@ -16,6 +16,7 @@ import uk.co.petertribble.sphaero2.cutter.ClassicCutter;
 import uk.co.petertribble.sphaero2.model.Jigsaw;
 import uk.co.petertribble.sphaero2.model.JigsawParam;
 import uk.co.petertribble.sphaero2.model.Piece;
+import uk.co.petertribble.sphaero2.model.PieceRegistry;
 import uk.co.petertribble.sphaero2.model.PiecesBin;
 
 import javax.imageio.ImageIO;
@@ -24,10 +25,10 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.berray.objects.core.Label.label;
 import static com.berray.objects.guiold.panel.PanelBuilder.makePanel;
@@ -48,7 +49,7 @@ public class JigsawApplication extends BerrayApplication implements CoreAssetSho
     params.setFilename(new File(imagePath));
     params.setPieces(200);
     params.setCutter(new ClassicCutter());
-    Jigsaw jigsaw = new Jigsaw(params, sourceImage, new PiecesBin(new AtomicInteger(1), "main"));
+    Jigsaw jigsaw = new Jigsaw(params, sourceImage, new PiecesBin(new PieceRegistry(), "main"));
     System.out.println("cutting...");
     jigsaw.reset(true, width(), height());
 
@@ -174,6 +175,10 @@ public class JigsawApplication extends BerrayApplication implements CoreAssetSho
     overviewPanel.set("anchor", AnchorType.TOP_LEFT);
     overviewPanel.on(CoreEvents.UPDATE, e -> {
       var rect = jigsaw.getPieces().getRect();
+      if (rect.getWidth() <= 0 || rect.getHeight() <= 0) {
+        // no pieces to show
+        return;
+      }
       float scaleX = 150.0f / rect.getWidth();
       float scaleY = 150.0f / rect.getHeight();
       float scale = Math.min(scaleX, scaleY);
@@ -211,7 +216,7 @@ public class JigsawApplication extends BerrayApplication implements CoreAssetSho
 
   }
 
-  private List<BufferedImage> createTextures(List<Piece> originalPieces) {
+  private List<BufferedImage> createTextures(Collection<Piece> originalPieces) {
     if (originalPieces.isEmpty()) {
       throw new IllegalStateException("Jigsaw has no pieces. Did you forget to cut it?");
     }
@@ -229,7 +234,8 @@ public class JigsawApplication extends BerrayApplication implements CoreAssetSho
     int currentY = 5;
     int currentX = 5;
     BufferedImage texture = new BufferedImage(textureSize, textureSize, BufferedImage.TYPE_INT_ARGB);
-    Graphics graphics = texture.createGraphics();
+    // pixels of the current piece. Reused for all pieces, grown when a piece is larger
+    int[] pixels = new int[0];
 
     for (Piece piece : pieces) {
       int width = piece.getImageWidth();
@@ -244,20 +250,22 @@ public class JigsawApplication extends BerrayApplication implements CoreAssetSho
       // check if current image is full
       if (currentX + width > textureSize - 5) {
         // yes. start new image
-        graphics.dispose();
         textures.add(texture);
         texture = new BufferedImage(textureSize, textureSize, BufferedImage.TYPE_INT_ARGB);
-        graphics = texture.createGraphics();
         currentX = 0;
       }
 
-      graphics.drawImage(piece.getOriginalImage(), currentX, currentY, null);
+      if (pixels.length < width * height) {
+        pixels = new int[width * height];
+      }
+      // the pieces don't overlap, so the pixels can be copied instead of drawn
+      piece.copyOrigData(pixels);
+      texture.setRGB(currentX, currentY, width, height, pixels, 0, width);
       pieceDescriptions.put(piece.getId(), new PieceDescription(piece.getId(), textures.size(), new Rect(currentX, currentY, width, height)));
       currentY += height;
       columnWidth = Math.max(columnWidth, width);
     }
     // close last texture
-    graphics.dispose();
     textures.add(texture);
 
     return textures;
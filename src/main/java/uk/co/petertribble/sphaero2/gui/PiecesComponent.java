@@ -10,6 +10,7 @@ import com.berray.math.Rect;
 import com.berray.math.Vec2;
 import com.berray.math.Vec3;
 import com.raylib.Raylib;
+import uk.co.petertribble.sphaero2.model.GeomUtil;
 import uk.co.petertribble.sphaero2.model.Piece;
 import uk.co.petertribble.sphaero2.model.PieceSet;
 import uk.co.petertribble.sphaero2.model.PiecesBin;
@@ -226,7 +227,9 @@ public class PiecesComponent extends Component {
     }
 
     Vec2 clickPosition = event.getGameObjectPos();
-    Vec2 delta = clickPosition.sub(mouseDownPosition);
+    // drag vector. Kept in primitives, so dragging pieces doesn't create garbage
+    float deltaX = clickPosition.getX() - mouseDownPosition.getX();
+    float deltaY = clickPosition.getY() - mouseDownPosition.getY();
 
     switch (dragMode) {
       case TABLE:
@@ -238,23 +241,25 @@ public class PiecesComponent extends Component {
       case SELECTION_RECTANGLE:
         // table must be moved in window coordinate space
         GameObject selectionNode = gameObject.getChildren("selectionRectangle").get(0);
-        selectionNode.set("size", delta);
+        selectionNode.set("size", new Vec2(deltaX, deltaY));
         break;
       case SELECTED_PIECES: {
-        Vec2 anchor = pieces.getSelected().getAnchor();
+        long anchor = pieces.getSelected().getAnchorPacked();
         // calculate vector by which we moved the pieces already
-        var alreadyMoved = anchor.sub(dragStart);
+        float alreadyMovedX = GeomUtil.x(anchor) - dragStart.getX();
+        float alreadyMovedY = GeomUtil.y(anchor) - dragStart.getY();
         // calculate delta to total drag vector
         // this is the amount we need to move the selection
-        var selectedDelta = delta.sub(alreadyMoved);
-        if (selectedDelta.lengthSquared() > 1.0f) {
-          pieces.getSelected().moveBy(selectedDelta);
+        float selectedDeltaX = deltaX - alreadyMovedX;
+        float selectedDeltaY = deltaY - alreadyMovedY;
+        if (selectedDeltaX * selectedDeltaX + selectedDeltaY * selectedDeltaY > 1.0f) {
+          pieces.getSelected().moveBy((int) selectedDeltaX, (int) selectedDeltaY);
         }
         break;
       }
       case SINGLE_PIECE:
-        float x = dragStart.getX() + delta.getX();
-        float y = dragStart.getY() + delta.getY();
+        float x = dragStart.getX() + deltaX;
+        float y = dragStart.getY() + deltaY;
         pieces.movePieceTo(clickedPiece, (int) x, (int) y);
         break;
     }
@@ -278,10 +283,12 @@ public class PiecesComponent extends Component {
         }
         break;
       case SELECTION_RECTANGLE:
-        Vec2 delta = event.getGameObjectPos().sub(mouseDownPosition);
-        selectionRectangle = new Rect(dragStart, delta).normalize();
-        var piecesInRectangle = pieces.getPiecesInRect(selectionRectangle);
-        pieces.getSelected().addAll(piecesInRectangle);
+        Vec2 clickPosition = event.getGameObjectPos();
+        float deltaX = clickPosition.getX() - mouseDownPosition.getX();
+        float deltaY = clickPosition.getY() - mouseDownPosition.getY();
+        selectionRectangle = new Rect(dragStart.getX(), dragStart.getY(), deltaX, deltaY).normalize();
+        // add the pieces straight to the selection, without an intermediate set
+        pieces.getPiecesInRect(selectionRectangle, pieces.getSelected());
     }
 
     // only one piece left: the puzzle is done.
@@ -0,0 +1,131 @@
+package uk.co.petertribble.sphaero2.model;
+
+/**
+ * One bit per pixel mask of the visible (non transparent) pixels of a piece.
+ * <p>
+ * The mask is used for hit testing and overlap tests, so these work without
+ * the pixel data of the piece. Each row starts at a new <code>long</code>.
+ */
+public class CoverageMask {
+
+  private final int width;
+  private final int height;
+  private final int wordsPerRow;
+  private final long[] bits;
+
+  public CoverageMask(int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.wordsPerRow = (width + 63) >>> 6;
+    this.bits = new long[wordsPerRow * height];
+  }
+
+  /**
+   * Creates the mask from ARGB data. Pixels with an alpha value greater than 0 are visible.
+   */
+  public static CoverageMask fromArgb(int[] data, int width, int height) {
+    CoverageMask mask = new CoverageMask(width, height);
+    for (int y = 0; y < height; y++) {
+      int rowOffset = y * width;
+      int wordOffset = y * mask.wordsPerRow;
+      for (int x = 0; x < width; x++) {
+        if ((data[rowOffset + x] >>> 24) != 0) {
+          mask.bits[wordOffset + (x >>> 6)] |= 1L << (x & 63);
+        }
+      }
+    }
+    return mask;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /** Returns true if the pixel is visible. Coordinates outside of the mask are not visible. */
+  public boolean get(int x, int y) {
+    if (x < 0 || y < 0 || x >= width || y >= height) {
+      return false;
+    }
+    return (bits[y * wordsPerRow + (x >>> 6)] & (1L << (x & 63))) != 0;
+  }
+
+  private void set(int x, int y) {
+    bits[y * wordsPerRow + (x >>> 6)] |= 1L << (x & 63);
+  }
+
+  /**
+   * Returns the mask rotated clockwise by the given number of quarter turns,
+   * the same way the piece data is rotated.
+   */
+  public CoverageMask rotate(int quarterTurns) {
+    int turns = Math.floorMod(quarterTurns, 4);
+    if (turns == 0) {
+      return this;
+    }
+    boolean swap = turns % 2 == 1;
+    CoverageMask rotated = new CoverageMask(swap ? height : width, swap ? width : height);
+    for (int j = 0; j < rotated.height; j++) {
+      for (int i = 0; i < rotated.width; i++) {
+        boolean visible;
+        if (turns == 1) {
+          visible = get(j, height - 1 - i);
+        } else if (turns == 2) {
+          visible = get(width - 1 - i, height - 1 - j);
+        } else {
+          visible = get(width - 1 - j, i);
+        }
+        if (visible) {
+          rotated.set(i, j);
+        }
+      }
+    }
+    return rotated;
+  }
+
+  /**
+   * Returns true if this mask and the other mask have a common visible pixel.
+   *
+   * @param other the other mask
+   * @param dx    x position of the other mask relative to this one
+   * @param dy    y position of the other mask relative to this one
+   */
+  public boolean intersects(CoverageMask other, int dx, int dy) {
+    int minX = Math.max(0, dx);
+    int maxX = Math.min(width, dx + other.width);
+    int minY = Math.max(0, dy);
+    int maxY = Math.min(height, dy + other.height);
+    if (minX >= maxX || minY >= maxY) {
+      return false;
+    }
+    for (int y = minY; y < maxY; y++) {
+      for (int x = minX; x < maxX; x += 64) {
+        int count = Math.min(64, maxX - x);
+        long keep = count == 64 ? -1L : (1L << count) - 1;
+        if ((row(y, x) & other.row(y - dy, x - dx) & keep) != 0) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Returns the 64 bits of row y starting at x. Bits after the end of the row are 0. */
+  private long row(int y, int x) {
+    int index = y * wordsPerRow + (x >>> 6);
+    int shift = x & 63;
+    long value = bits[index] >>> shift;
+    if (shift != 0 && (x >>> 6) + 1 < wordsPerRow) {
+      value |= bits[index + 1] << (64 - shift);
+    }
+    return value;
+  }
+
+  /** Returns the memory used by the bits of this mask. */
+  public long getByteSize() {
+    return bits.length * 8L;
+  }
+}
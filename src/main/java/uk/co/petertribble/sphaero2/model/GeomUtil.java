@@ -0,0 +1,62 @@
+package uk.co.petertribble.sphaero2.model;
+
+import java.awt.*;
+
+/**
+ * Integer geometry helpers which don't allocate.
+ * <p>
+ * Points are packed into a single <code>long</code> (x in the upper, y in the
+ * lower 32 bits). Rectangles are passed in as out-parameters; a rectangle with
+ * a negative width or height is empty.
+ */
+public final class GeomUtil {
+
+  /*
+   * This class should never be instantiated.
+   */
+  private GeomUtil() {
+  }
+
+  /** Packs the point into a long. */
+  public static long pack(int x, int y) {
+    return ((long) x << 32) | (y & 0xffffffffL);
+  }
+
+  /** Returns the x coordinate of a packed point. */
+  public static int x(long point) {
+    return (int) (point >> 32);
+  }
+
+  /** Returns the y coordinate of a packed point. */
+  public static int y(long point) {
+    return (int) point;
+  }
+
+  /** Makes the rectangle empty, so the next {@link #union} sets it. */
+  public static void clear(Rectangle out) {
+    out.setBounds(0, 0, -1, -1);
+  }
+
+  /** Returns true if the rectangle was cleared and nothing was added since. */
+  public static boolean isCleared(Rectangle rect) {
+    return rect.width < 0 || rect.height < 0;
+  }
+
+  /** Extends the rectangle so it also contains the given area. */
+  public static void union(Rectangle out, int x, int y, int width, int height) {
+    if (isCleared(out)) {
+      out.setBounds(x, y, width, height);
+      return;
+    }
+    int minX = Math.min(out.x, x);
+    int minY = Math.min(out.y, y);
+    int maxX = Math.max(out.x + out.width, x + width);
+    int maxY = Math.max(out.y + out.height, y + height);
+    out.setBounds(minX, minY, maxX - minX, maxY - minY);
+  }
+
+  /** Extends the rectangle so it also contains the other rectangle. */
+  public static void union(Rectangle out, Rectangle other) {
+    union(out, other.x, other.y, other.width, other.height);
+  }
+}
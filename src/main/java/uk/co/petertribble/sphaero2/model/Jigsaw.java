@@ -8,7 +8,7 @@ import java.util.Arrays;
 import java.util.Set;
 
 
-public class Jigsaw {
+public class Jigsaw implements MemoryAccounting.Source {
 
   private final JigsawParam params;
   private final BufferedImage image;
@@ -16,6 +16,8 @@ public class Jigsaw {
   // Last in list = topmost piece
   private PiecesBin pieces;
   private boolean finished;
+  // Storage for the pixel data of the pieces. null when the pieces keep their own arrays.
+  private PixelArena pixelArena;
 
   public Jigsaw(JigsawParam params, BufferedImage image, PiecesBin pieces) {
     this.image = image;
@@ -92,8 +94,57 @@ public class Jigsaw {
   public void reset(boolean shuffle, int width, int height) {
     Piece[] pieces = getParams().getCutter().cut(image);
     this.pieces.setPieces(Arrays.asList(pieces));
+    if (pixelArena != null) {
+      // the old pieces are discarded, so is their pixel data
+      PixelArena arena = new PixelArena(pixelArena.isDirect());
+      pixelArena.release();
+      usePixelArena(arena);
+    }
     if (shuffle) {
       shuffle(width, height);
     }
   }
+
+  /**
+   * Moves the pixel data of all pieces into the given arena.
+   */
+  public void usePixelArena(PixelArena arena) {
+    this.pixelArena = arena;
+    for (Piece piece : pieces.getPieces()) {
+      for (Piece sub : piece.getSubs()) {
+        sub.moveToArena(arena);
+      }
+    }
+  }
+
+  public PixelArena getPixelArena() {
+    return pixelArena;
+  }
+
+  @Override
+  public void accountMemory(MemoryBreakdown breakdown) {
+    breakdown.addImage(MemoryBreakdown.Category.SOURCE_IMAGE, image);
+    if (finishedImage != null) {
+      // created from the pieces, so it is about as big as the source image
+      breakdown.add(MemoryBreakdown.Category.CACHES, image.getWidth() * (long) image.getHeight() * 4);
+    }
+    if (pixelArena != null) {
+      breakdown.add(MemoryBreakdown.Category.ORIGINAL, pixelArena.getUsedBytes());
+    }
+    pieces.accountMemory(breakdown);
+  }
+
+  /**
+   * Releases the resources of this jigsaw. The jigsaw cannot be used afterwards.
+   */
+  public void dispose() {
+    if (pixelArena != null) {
+      pixelArena.release();
+      pixelArena = null;
+    }
+    if (finishedImage != null) {
+      finishedImage.flush();
+      finishedImage = null;
+    }
+  }
 }
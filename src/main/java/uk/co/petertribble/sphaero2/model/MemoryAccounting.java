@@ -0,0 +1,41 @@
+package uk.co.petertribble.sphaero2.model;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Counts the memory used by the pixel data of a puzzle, by category.
+ * <p>
+ * The objects which own pixel data (the jigsaw, its pieces, the panel with
+ * its caches) are registered as sources. {@link #measure()} asks each source
+ * to add its current buffers to a new {@link MemoryBreakdown}, so the numbers
+ * are always up to date and nothing has to be counted when buffers are
+ * created or thrown away.
+ */
+public class MemoryAccounting {
+
+  /** Owner of pixel data. */
+  public interface Source {
+    /** Adds the bytes of the current buffers to the breakdown. */
+    void accountMemory(MemoryBreakdown breakdown);
+  }
+
+  private final List<Source> sources = new CopyOnWriteArrayList<>();
+
+  public void addSource(Source source) {
+    sources.add(source);
+  }
+
+  public void removeSource(Source source) {
+    sources.remove(source);
+  }
+
+  /** Returns the memory used by all sources now. */
+  public MemoryBreakdown measure() {
+    MemoryBreakdown breakdown = new MemoryBreakdown();
+    for (Source source : sources) {
+      source.accountMemory(breakdown);
+    }
+    return breakdown;
+  }
+}
@@ -0,0 +1,92 @@
+package uk.co.petertribble.sphaero2.model;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Bytes of pixel data by category, as counted by a {@link MemoryAccounting}.
+ */
+public class MemoryBreakdown {
+
+  /** What the memory is used for. */
+  public enum Category {
+    /** The image the puzzle was cut from. */
+    SOURCE_IMAGE("source image"),
+    /** Original data of the pieces, plain, compressed or in a pixel arena. */
+    ORIGINAL("original data"),
+    /** Current data of the pieces, with the bevel. */
+    RENDERED("rendered data"),
+    /** Outline and shadow layers of highlighted pieces. */
+    HIGHLIGHT("highlights"),
+    /** Current data of joined pieces. */
+    MULTIPIECE("multipieces"),
+    /** Reduced images, coverage masks and buffers of the panel. */
+    CACHES("caches"),
+    /** Pages of the piece atlas. */
+    ATLAS("atlas");
+
+    private final String label;
+
+    Category(String label) {
+      this.label = label;
+    }
+
+    public String getLabel() {
+      return label;
+    }
+  }
+
+  private final long[] bytes = new long[Category.values().length];
+
+  /** Adds bytes to a category. */
+  public void add(Category category, long size) {
+    bytes[category.ordinal()] += size;
+  }
+
+  /** Adds the pixel data of an image to a category. Does nothing if the image is null. */
+  public void addImage(Category category, BufferedImage image) {
+    if (image != null) {
+      DataBuffer buffer = image.getRaster().getDataBuffer();
+      add(category, (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8);
+    }
+  }
+
+  /** Adds an int array (one pixel per element) to a category. Does nothing if the array is null. */
+  public void addPixels(Category category, int[] data) {
+    if (data != null) {
+      add(category, data.length * 4L);
+    }
+  }
+
+  public long get(Category category) {
+    return bytes[category.ordinal()];
+  }
+
+  public long getTotal() {
+    long total = 0;
+    for (long size : bytes) {
+      total += size;
+    }
+    return total;
+  }
+
+  /** Returns the bytes of all categories, in the order of {@link Category}. */
+  public Map<Category, Long> toMap() {
+    Map<Category, Long> map = new EnumMap<>(Category.class);
+    for (Category category : Category.values()) {
+      map.put(category, get(category));
+    }
+    return map;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    for (Category category : Category.values()) {
+      result.append(category.getLabel()).append(": ").append(get(category)).append(", ");
+    }
+    return result.append("total: ").append(getTotal()).toString();
+  }
+}
@@ -0,0 +1,130 @@
+package uk.co.petertribble.sphaero2.model;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the pixel data of a puzzle below a fixed number of bytes.
+ * <p>
+ * Pieces keep the data they are drawn with (the current data with the bevel,
+ * the highlight and the reduced images) until they are compressed after a
+ * long idle time. With many pieces that is more than the heap can hold.
+ * {@link #enforce(PiecesBin, Rectangle, long, long)} measures the pixel data with a
+ * {@link MemoryAccounting} and, when it is over the budget, throws away the
+ * render data of the pieces which were drawn least recently, starting with
+ * the pieces outside the view. If that is not enough, the original data of
+ * the pieces is compressed in the same order. Everything is recreated when a
+ * piece is drawn again, so pieces which were drawn in the current or the last
+ * frame are left alone; releasing them would only make the next frame
+ * recreate them.
+ * <p>
+ * The budget in megabytes is set with the system property
+ * <code>sphaero2.memoryBudget</code>. The default is half of the maximum heap.
+ */
+public class MemoryBudget {
+
+  public static final String PROPERTY = "sphaero2.memoryBudget";
+
+  /** Data is released until it is this fraction of the budget, so it is not released again at the next check. */
+  private static final double LOW_WATER = 0.9;
+
+  private static final Comparator<Piece> LEAST_RECENTLY_DRAWN = Comparator.comparingLong(Piece::getLastDrawn);
+
+  private final MemoryAccounting accounting;
+  private final long budgetBytes;
+
+  /**
+   * Creates a budget.
+   *
+   * @param accounting  measures the pixel data
+   * @param budgetBytes maximum bytes of pixel data
+   */
+  public MemoryBudget(MemoryAccounting accounting, long budgetBytes) {
+    this.accounting = accounting;
+    this.budgetBytes = budgetBytes;
+  }
+
+  /** Returns a budget as configured by the system property. */
+  public static MemoryBudget fromSystemProperty(MemoryAccounting accounting) {
+    Long megabytes = Long.getLong(PROPERTY);
+    long budget = megabytes != null ? megabytes * 1024 * 1024 : Runtime.getRuntime().maxMemory() / 2;
+    return new MemoryBudget(accounting, budget);
+  }
+
+  public long getBudgetBytes() {
+    return budgetBytes;
+  }
+
+  /**
+   * Releases data of the pieces until the pixel data fits into the budget.
+   * Releasing render data is cheap; compressing original data stops when the
+   * time budget is used up, so this can be called from the event dispatch
+   * thread.
+   *
+   * @param bin         the pieces
+   * @param view        area shown to the player, in puzzle coordinates
+   * @param drawnSince  start of the last frame (System.nanoTime); pieces drawn since are kept
+   * @param budgetNanos maximum time to spend compressing
+   * @return the estimated number of bytes freed
+   */
+  public long enforce(PiecesBin bin, Rectangle view, long drawnSince, long budgetNanos) {
+    long used = accounting.measure().getTotal();
+    if (used <= budgetBytes) {
+      return 0;
+    }
+    long start = System.nanoTime();
+    long target = (long) (budgetBytes * LOW_WATER);
+    List<Piece> candidates = getEvictionOrder(bin, view);
+
+    long freed = 0;
+    for (Piece piece : candidates) {
+      if (used - freed <= target) {
+        return freed;
+      }
+      if (piece.getLastDrawn() < drawnSince) {
+        freed += piece.releaseRenderData();
+      }
+    }
+
+    // still over the budget: compress the original data in the same order
+    for (Piece piece : candidates) {
+      if (used - freed <= target || System.nanoTime() - start > budgetNanos) {
+        break;
+      }
+      if (piece.getLastDrawn() >= drawnSince) {
+        continue;
+      }
+      for (Piece sub : piece.getSubs()) {
+        long before = sub.getOrigDataSize();
+        if (sub.compress()) {
+          freed += before - sub.getOrigDataSize();
+        }
+      }
+    }
+    return freed;
+  }
+
+  /** Returns the pieces outside the view and then the ones inside, each least recently drawn first. */
+  private static List<Piece> getEvictionOrder(PiecesBin bin, Rectangle view) {
+    Set<Piece> visible = Collections.newSetFromMap(new IdentityHashMap<>());
+    visible.addAll(bin.getPiecesIntersecting(view));
+    List<Piece> outside = new ArrayList<>(bin.size());
+    List<Piece> inside = new ArrayList<>(visible.size());
+    for (Piece piece : bin.getPieces()) {
+      if (visible.contains(piece)) {
+        inside.add(piece);
+      } else {
+        outside.add(piece);
+      }
+    }
+    outside.sort(LEAST_RECENTLY_DRAWN);
+    inside.sort(LEAST_RECENTLY_DRAWN);
+    outside.addAll(inside);
+    return outside;
+  }
+}
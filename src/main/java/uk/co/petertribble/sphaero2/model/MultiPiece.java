@@ -1,6 +1,7 @@
 package uk.co.petertribble.sphaero2.model;
 
 import java.awt.*;
+import java.awt.geom.Path2D;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -24,6 +25,8 @@ public class MultiPiece extends Piece {
   // Subs are also necessary if someday I decide to support splitting
   // joined pieces back into their parts.
   private Set<Piece> subs;
+  // Outlines of the subs in image coordinates. Created when needed.
+  private Shape outline;
 
   // Constructor and fields -----------------------------------------------
 
@@ -94,6 +97,30 @@ public class MultiPiece extends Piece {
     super.setRotation(rot);
   }
 
+  /** Adds the memory of this piece and of its subs to the breakdown. */
+  @Override
+  public void accountMemory(MemoryBreakdown breakdown) {
+    super.accountMemory(breakdown);
+    for (Piece piece : subs) {
+      piece.accountMemory(breakdown);
+    }
+  }
+
+  /** Throws away the render data of this piece and of its subs, which it is rebuilt from. */
+  @Override
+  public synchronized long releaseRenderData() {
+    long freed = super.releaseRenderData();
+    for (Piece piece : subs) {
+      freed += piece.releaseRenderData();
+    }
+    return freed;
+  }
+
+  @Override
+  protected MemoryBreakdown.Category getRenderedCategory() {
+    return MemoryBreakdown.Category.MULTIPIECE;
+  }
+
   @Override
   public String toString() {
     return "Multi" + super.toString() + "[pieces=" + subs.size() + "]";
@@ -207,9 +234,10 @@ public class MultiPiece extends Piece {
 
   /**
    * Overlays the current image in the given Piece onto the data array.
-   * The data array's image location is given by (dataX,dataY).  Its image
-   * size is given by (width,height).  The Piece's image is assumed to fit
-   * entirely within the data image rectangle.
+   * Both are in the original orientation. The data array's image location
+   * is given by (dataX,dataY).  Its image size is given by (width,height).
+   * The Piece's image is assumed to fit entirely within the data image
+   * rectangle.
    *
    * @param data   the array to overlay the Piece into
    * @param dataX  the x coordinate of the data array
@@ -220,12 +248,12 @@ public class MultiPiece extends Piece {
    */
   protected static void overlay(int[] data, int dataX, int dataY,
                                 int width, int height, Piece piece) {
-    int pieceX = piece.getRotatedX();
-    int pieceY = piece.getRotatedY();
-    int pieceW = piece.getCurrentWidth();
-    int pieceH = piece.getCurrentHeight();
+    int pieceX = piece.getImageX();
+    int pieceY = piece.getImageY();
+    int pieceW = piece.getImageWidth();
+    int pieceH = piece.getImageHeight();
 
-    int[] newData = piece.curData;
+    int[] newData = piece.getCurData();
 
     // Fold it into the data.  ReSPECT mah transparensah!
     int offset = (pieceY - dataY) * width + (pieceX - dataX);
@@ -234,7 +262,6 @@ public class MultiPiece extends Piece {
       int iNDOffset = i * pieceW;
       int iDOffset = i * width;
       for (int j = 0; j < pieceW; j++) {
-        // int ndOff = iNDOffset+j;
         int newDatum = newData[iNDOffset + j];
         if (newDatum != 0) {
           data[offset + iDOffset + j] = newDatum;
@@ -245,25 +272,50 @@ public class MultiPiece extends Piece {
 
   // 4-way rotation -------------------------------------------------------
 
-  public void recomputeImageData() {
+  public synchronized void recomputeImageData() {
     setRotatedPosition();
-    // System.out.println ("recomputing: "+this);
-    int[] data = new int[curWidth * curHeight];
-    int rotX = getRotatedX();
-    int rotY = getRotatedY();
+    // the data doesn't depend on the rotation: the subs are put together in the original orientation
+    int[] data = new int[origWidth * origHeight];
     for (Piece sub : subs) {
-      overlay(data, rotX, rotY, curWidth, curHeight, sub);
+      overlay(data, getImageX(), getImageY(), origWidth, origHeight, sub);
     }
     curData = data;
+    imageChanged();
+  }
+
+  @Override
+  protected void createHighlight() {
+    // MultiPieces don't have a highlight layer.
   }
 
+  /**
+   * Returns the outlines of all sub pieces as one path, or null if a sub
+   * piece has no outline. The outlines between the sub pieces are covered
+   * by the piece when it is drawn, so they don't need to be removed.
+   */
+  @Override
+  public Shape getOutline() {
+    if (outline == null) {
+      Path2D path = new Path2D.Float();
+      for (Piece sub : subs) {
+        Shape subOutline = sub.getOutline();
+        if (subOutline == null) {
+          return null;
+        }
+        path.append(subOutline, false);
+      }
+      outline = path;
+    }
+    return outline;
+  }
 
   @Override
-  public Rectangle getDrawBounds() {
-    int highlightWidth = curWidth +  Math.abs(shadowOffsetX) + outlineSize * 2;;
-    int highlightHeight = curHeight + Math.abs(shadowOffsetY) + outlineSize * 2;;
-    return new Rectangle(getPuzzleX() - outlineSize - (shadowOffsetX < 0 ? -shadowOffsetX : 0),
+  public Rectangle getDrawBounds(Rectangle out) {
+    int highlightWidth = getCurrentWidth() + Math.abs(shadowOffsetX) + outlineSize * 2;
+    int highlightHeight = getCurrentHeight() + Math.abs(shadowOffsetY) + outlineSize * 2;
+    out.setBounds(getPuzzleX() - outlineSize - (shadowOffsetX < 0 ? -shadowOffsetX : 0),
             getPuzzleY() - outlineSize - (shadowOffsetY < 0 ? -shadowOffsetY : 0),
             highlightWidth, highlightHeight);
+    return out;
   }
 }
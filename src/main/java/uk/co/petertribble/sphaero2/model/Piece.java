@@ -1,8 +1,10 @@
 package uk.co.petertribble.sphaero2.model;
 
 import uk.co.petertribble.sphaero2.cutter.BevelUtil;
+import uk.co.petertribble.sphaero2.model.MemoryBreakdown.Category;
 
 import java.awt.*;
+import java.awt.geom.AffineTransform;
 import java.awt.image.MemoryImageSource;
 import java.util.HashSet;
 import java.util.Set;
@@ -55,10 +57,9 @@ public class Piece {
   protected int origWidth;
   protected int origHeight;
   /**
-   * Current size and data, taking rotation into account.
+   * Current data: the original data with the bevel, in the original orientation (origWidth x origHeight).
+   * Rotation is applied when the piece is drawn. The current (rotated) size is kept in the transforms.
    */
-  protected int curWidth;
-  protected int curHeight;
   protected int[] curData;
   /** Highlight layer. */
   protected int highlightWidth;
@@ -67,6 +68,19 @@ public class Piece {
   protected int shadowOffsetX = 6;
   protected int shadowOffsetY = 6;
   private int[] highlightData;
+  /** Colors of the highlight drawn from the outline. */
+  private static final Color OUTLINE_COLOR = new Color(255, 0, 0, 128);
+  private static final Color SHADOW_COLOR = new Color(0, 0, 0, 128);
+  /** Twice the outline size, as the inner half of the stroke is covered by the piece. */
+  private static final Stroke OUTLINE_STROKE = new BasicStroke(6, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+  /** Outline of the piece as it was cut, in image coordinates. null if the cutter didn't set it. */
+  private Shape outline;
+  /** Outline in the current rotation, relative to the upper left corner of the piece. Created when needed. */
+  private Shape currentOutline;
+  /** Reduced resolution images for zoomed out views. Created when needed. */
+  private final PieceLevels levels = new PieceLevels();
+  /** Coverage masks by rotation (0, 90, 180, 270). Created when needed, the others are rotated from the first. */
+  private final CoverageMask[] masks = new CoverageMask[4];
 
   // Location in the image.
   private final int imageX;
@@ -77,28 +91,30 @@ public class Piece {
   // Location in the image adjusted by current rotation.
   private int rotatedX;
   private int rotatedY;
-  private final int[] origData;
-  // Location in the puzzle panel.
-  private int puzzleX;
-  private int puzzleY;
+  // Original image data. null when the data was moved to a PixelArena.
+  private int[] origData;
+  private PixelArena arena;
+  private long arenaHandle;
+  // Compressed original data (and null origData) while the piece is idle.
+  private byte[] compressedData;
+  // Time (System.nanoTime) when this piece was last moved, rotated or highlighted.
+  private volatile long lastTouched = System.nanoTime();
+  // Time (System.nanoTime) when this piece was last drawn. 0 if it was never drawn.
+  private long lastDrawn;
+  // Bin this piece is in. The bin is informed when the piece moves.
+  private PiecesBin bin;
+  // Position in the z-order of the bin. Higher is more on top.
+  long zKey;
+  // Whether this piece is in the idle queue of its bin. Guarded by the queue.
+  volatile boolean queued;
+  // Position, rotation and size. Slot 0 of a private store until the piece is registered.
+  private PieceTransforms transforms = new PieceTransforms(1);
+  private int slot;
   // Image for this Piece. null for a MultiPiece
   private Image image;
+  private int imageVersion;
   private Image hightlightImage;
 
-  // Accessors ------------------------------------------------------------
-  // This is measured in integer degrees, 0-359.  0 is unrotated.  90 is 90
-  // degrees clockwise, etc.
-  private int rotation;
-
-  // Current position (for animation)
-  private int currentX;
-  private int currentY;
-  public long currentDataDuration;
-  public long bevelDuration;
-  public long highlightDuration;
-  public long imageDuration;
-  public long highlightImageDuration;
-
   /**
    * Creates a new Piece.  No initial rotation is done.  (This is needed
    * by MultiPiece, which needs to set its subpieces before rotating.)
@@ -121,13 +137,14 @@ public class Piece {
     this.imageX = imageX;
     this.imageY = imageY;
 
-    this.puzzleX = imageX;
-    this.puzzleY = imageY;
-    this.currentX = imageX;
-    this.currentY = imageY;
+    transforms.puzzleX[slot] = imageX;
+    transforms.puzzleY[slot] = imageY;
+    transforms.currentX[slot] = imageX;
+    transforms.currentY[slot] = imageY;
 
-    this.curWidth = this.origWidth = imageWidth;
-    this.curHeight = this.origHeight = imageHeight;
+    this.origWidth = imageWidth;
+    this.origHeight = imageHeight;
+    setCurrentSize(imageWidth, imageHeight);
     this.totalWidth = totalWidth;
     this.totalHeight = totalHeight;
   }
@@ -166,13 +183,55 @@ public class Piece {
   }
 
   public int[] getData() {
-    return origData;
+    return getOrigData();
+  }
+
+  /**
+   * Moves the original image data of this piece into the given arena. The
+   * data is loaded from the arena when it is needed again (for example to
+   * rotate the piece).
+   *
+   * @param arena the arena to store the data in
+   */
+  public void moveToArena(PixelArena arena) {
+    if (origData == null) {
+      return;
+    }
+    this.arenaHandle = arena.store(origData);
+    this.arena = arena;
+    this.origData = null;
+  }
+
+  /** Returns true when the original image data is stored in a PixelArena. */
+  public boolean isInArena() {
+    return arena != null;
   }
 
   public Set<Piece> getSubs() {
     return Set.of(this);
   }
 
+  /**
+   * Moves the transform of this piece into the given slot of the store.
+   * Called by the registry.
+   */
+  void attachTransforms(PieceTransforms store, int newSlot) {
+    store.copyFrom(transforms, slot, newSlot);
+    this.transforms = store;
+    this.slot = newSlot;
+  }
+
+  /**
+   * Moves the transform of this piece back into a private store, so the
+   * piece keeps its position when it is unregistered. Called by the registry.
+   */
+  void detachTransforms() {
+    PieceTransforms own = new PieceTransforms(1);
+    own.copyFrom(transforms, slot, 0);
+    this.transforms = own;
+    this.slot = 0;
+  }
+
   /**
    * Returns this Piece's current rotation.  The rotation is given in
    * integer degrees clockwise, and will always be between 0 and 359
@@ -182,7 +241,7 @@ public class Piece {
    * @see #setRotation
    */
   public int getRotation() {
-    return rotation;
+    return transforms.rotation[slot];
   }
 
   /**
@@ -196,7 +255,7 @@ public class Piece {
    * @see #getRotation
    */
   public void setRotation(int rot) {
-    if (rot != rotation) {
+    if (rot != getRotation()) {
       forceSetRotation(rot);
     }
   }
@@ -216,14 +275,18 @@ public class Piece {
       int newRot = rot / 90;
       rot = 90 * newRot;
     }
-    rotation = rot;
-    recomputeImageData();
-    if (image != null) {
-      image.flush();
+    int oldWidth = getCurrentWidth();
+    int oldHeight = getCurrentHeight();
+    transforms.rotation[slot] = rot;
+    touch();
+    // the image data is rotated when it is drawn, only the size and the outline change
+    setRotatedPosition();
+    currentOutline = null;
+    clearHighlight();
+    if (bin != null) {
+      // width and height might be swapped
+      bin.pieceChanged(this, getPuzzleX(), getPuzzleY(), oldWidth, oldHeight);
     }
-    image = Toolkit.getDefaultToolkit().createImage(
-        new MemoryImageSource(
-            curWidth, curHeight, curData, 0, curWidth));
   }
 
   /**
@@ -234,8 +297,32 @@ public class Piece {
    * @param y The Piece's new y position
    */
   public void setPuzzlePosition(int x, int y) {
-    this.puzzleX = x;
-    this.puzzleY = y;
+    int oldX = getPuzzleX();
+    int oldY = getPuzzleY();
+    transforms.puzzleX[slot] = x;
+    transforms.puzzleY[slot] = y;
+    moved(oldX, oldY);
+  }
+
+  /**
+   * Called after the puzzle position of this piece was changed, either by
+   * {@link #setPuzzlePosition(int, int)} or directly in the transforms.
+   */
+  void moved(int oldX, int oldY) {
+    touch();
+    if (bin != null) {
+      bin.pieceChanged(this, oldX, oldY, getCurrentWidth(), getCurrentHeight());
+    }
+  }
+
+  /** Sets the bin this piece is in. Called by the bin. */
+  void setBin(PiecesBin bin) {
+    this.bin = bin;
+  }
+
+  /** Returns the bin this piece is in, or null. */
+  public PiecesBin getBin() {
+    return bin;
   }
 
   /**
@@ -246,7 +333,7 @@ public class Piece {
    * @return the Piece's current height in pixels
    */
   public int getCurrentHeight() {
-    return curHeight;
+    return transforms.height[slot];
   }
 
   /**
@@ -257,7 +344,12 @@ public class Piece {
    * @return the Piece's current width in pixels
    */
   public int getCurrentWidth() {
-    return curWidth;
+    return transforms.width[slot];
+  }
+
+  private void setCurrentSize(int width, int height) {
+    transforms.width[slot] = width;
+    transforms.height[slot] = height;
   }
 
   /**
@@ -344,7 +436,7 @@ public class Piece {
    * @return this Piece's X position
    */
   public int getPuzzleX() {
-    return puzzleX;
+    return transforms.puzzleX[slot];
   }
 
   /**
@@ -353,44 +445,92 @@ public class Piece {
    * @return this Piece's Y position
    */
   public int getPuzzleY() {
-    return puzzleY;
+    return transforms.puzzleY[slot];
   }
 
   /** Returns the bounds of the piece in the current position and rotation. */
   public Rectangle getBounds() {
-    return new Rectangle(puzzleX, puzzleY, curWidth, curHeight);
+    return getBounds(new Rectangle());
+  }
+
+  /** Stores the bounds of the piece in <code>out</code> and returns it. */
+  public Rectangle getBounds(Rectangle out) {
+    out.setBounds(getPuzzleX(), getPuzzleY(), getCurrentWidth(), getCurrentHeight());
+    return out;
   }
 
   /** Returns the bounds of the drawn stuff. */
   public Rectangle getDrawBounds() {
-    return new Rectangle(currentX - outlineSize - (shadowOffsetX < 0 ? -shadowOffsetX : 0),
-            currentY - outlineSize - (shadowOffsetY < 0 ? -shadowOffsetY : 0),
-            highlightWidth, highlightHeight);
+    return getDrawBounds(new Rectangle());
+  }
+
+  /** Stores the bounds of the drawn stuff in <code>out</code> and returns it. */
+  public Rectangle getDrawBounds(Rectangle out) {
+    out.setBounds(getCurrentX() - outlineSize - (shadowOffsetX < 0 ? -shadowOffsetX : 0),
+            getCurrentY() - outlineSize - (shadowOffsetY < 0 ? -shadowOffsetY : 0),
+            getCurrentWidth() + Math.abs(shadowOffsetX) + outlineSize * 2,
+            getCurrentHeight() + Math.abs(shadowOffsetY) + outlineSize * 2);
+    return out;
   }
 
   public int getCurrentX() {
-    return currentX;
+    return transforms.currentX[slot];
   }
 
   public int getCurrentY() {
-    return currentY;
+    return transforms.currentY[slot];
   }
 
   public void setCurrentPosition(int x, int y) {
-    this.currentX = x;
-    this.currentY = y;
+    transforms.currentX[slot] = x;
+    transforms.currentY[slot] = y;
   }
 
   /**
    * Returns this Piece's current image.  This will be the Piece's portion
-   * of the original image, rotated by this Piece's current rotation.
+   * of the original image with the bevel, in the original orientation. It is
+   * rotated when it is drawn.
    *
    * @return this Piece's portion of the overall image
    */
-  public Image getImage() {
+  public synchronized Image getImage() {
+    if (image == null) {
+      // created on first use. Pieces drawn from a PieceAtlas never need it.
+      int[] data = getCurData();
+      image = Toolkit.getDefaultToolkit().createImage(
+          new MemoryImageSource(origWidth, origHeight, data, 0, origWidth));
+    }
     return image;
   }
 
+  /**
+   * Returns a number which changes whenever the current image data of this
+   * piece is recomputed, so caches of the image can tell they are outdated.
+   */
+  public int getImageVersion() {
+    return imageVersion;
+  }
+
+  /** Called after the current image data was recomputed. */
+  protected void imageChanged() {
+    imageVersion++;
+    if (image != null) {
+      image.flush();
+      image = null;
+    }
+    clearHighlight();
+    currentOutline = null;
+  }
+
+  /** Throws away the highlight layer. It depends on the rotation and the image data. */
+  private void clearHighlight() {
+    if (hightlightImage != null) {
+      hightlightImage.flush();
+      hightlightImage = null;
+      highlightData = null;
+    }
+  }
+
   /**
    * Returns this Piece's original image
    *
@@ -398,7 +538,7 @@ public class Piece {
    */
   public Image getOriginalImage() {
     return Toolkit.getDefaultToolkit().createImage(
-        new MemoryImageSource(origWidth, origHeight, origData, 0, origWidth));
+        new MemoryImageSource(origWidth, origHeight, getOrigData(), 0, origWidth));
   }
 
 
@@ -440,9 +580,9 @@ public class Piece {
   public String toString() {
     return "Piece[iPos=(" + imageX + "," + imageY + "),"
         + "iSiz=" + origWidth + "x" + origHeight + ","
-        + "rot=" + rotation + ","
+        + "rot=" + getRotation() + ","
         + "rPos=(" + rotatedX + "," + rotatedY + "),"
-        + "pPos=(" + puzzleX + "," + puzzleY + ")]";
+        + "pPos=(" + getPuzzleX() + "," + getPuzzleY() + ")]";
   }
 
   /**
@@ -452,7 +592,7 @@ public class Piece {
    * @param g the Graphics object to draw to
    */
   public void draw(Graphics g) {
-    draw(g, currentX, currentY);
+    draw(g, getCurrentX(), getCurrentY());
   }
 
   /**
@@ -462,9 +602,197 @@ public class Piece {
    * @param g the Graphics object to draw to
    */
   public void draw(Graphics g, int x, int y) {
-    if (image != null) {
-      g.drawImage(image, x, y, null);
+    markDrawn();
+    drawImage(g, x, y);
+  }
+
+  private void drawImage(Graphics g, int x, int y) {
+    if (getRotation() == 0) {
+      g.drawImage(getImage(), x, y, null);
+      return;
+    }
+    Graphics2D g2 = (Graphics2D) g;
+    beginRotatedDraw(g2, x, y);
+    g2.drawImage(getImage(), 0, 0, null);
+    endRotatedDraw(g2, x, y);
+  }
+
+  /**
+   * Transforms the Graphics object, so the image data of this piece (which
+   * is in the original orientation) is drawn in the current rotation with
+   * its upper left corner at (x, y). Must be followed by
+   * {@link #endRotatedDraw(Graphics2D, int, int)} with the same position.
+   */
+  public void beginRotatedDraw(Graphics2D g, int x, int y) {
+    g.translate(x + getRotationOffsetX(), y + getRotationOffsetY());
+    double angle = getRotationAngle();
+    if (angle != 0) {
+      g.rotate(angle);
+    }
+  }
+
+  /** Undoes {@link #beginRotatedDraw(Graphics2D, int, int)}. */
+  public void endRotatedDraw(Graphics2D g, int x, int y) {
+    double angle = getRotationAngle();
+    if (angle != 0) {
+      // quarter turns are exact, so this restores the transform
+      g.rotate(-angle);
     }
+    g.translate(-(x + getRotationOffsetX()), -(y + getRotationOffsetY()));
+  }
+
+  /**
+   * Returns the transform from the image data (original orientation) to the
+   * current rotation, relative to the upper left corner of the piece.
+   */
+  public AffineTransform getRotationTransform() {
+    AffineTransform transform = AffineTransform.getTranslateInstance(getRotationOffsetX(), getRotationOffsetY());
+    transform.quadrantRotate(getRotation() / 90);
+    return transform;
+  }
+
+  private double getRotationAngle() {
+    switch (getRotation()) {
+      case 90:
+        return Math.PI / 2;
+      case 180:
+        return Math.PI;
+      case 270:
+        return -Math.PI / 2;
+      default:
+        return 0;
+    }
+  }
+
+  // where the upper left corner of the original data ends up after the rotation
+  private int getRotationOffsetX() {
+    int rotation = getRotation();
+    return rotation == 90 ? origHeight : rotation == 180 ? origWidth : 0;
+  }
+
+  private int getRotationOffsetY() {
+    int rotation = getRotation();
+    return rotation == 180 ? origHeight : rotation == 270 ? origWidth : 0;
+  }
+
+  /** Maps a pixel in the current rotation to the x coordinate in the original orientation. */
+  private int toImageX(int x, int y) {
+    switch (getRotation()) {
+      case 90:
+        return y;
+      case 180:
+        return origWidth - 1 - x;
+      case 270:
+        return origWidth - 1 - y;
+      default:
+        return x;
+    }
+  }
+
+  /** Maps a pixel in the current rotation to the y coordinate in the original orientation. */
+  private int toImageY(int x, int y) {
+    switch (getRotation()) {
+      case 90:
+        return origHeight - 1 - x;
+      case 180:
+        return origHeight - 1 - y;
+      case 270:
+        return x;
+      default:
+        return y;
+    }
+  }
+
+  /**
+   * Draws this Piece at its current position with a reduced resolution
+   * image. The image is stretched to the size of the piece, so this only
+   * makes sense when the Graphics object is scaled down.
+   *
+   * @param g     the Graphics object to draw to
+   * @param level the level of detail, see {@link PieceLevels#levelForScale(float)}
+   */
+  public void draw(Graphics g, int level) {
+    draw(g, getCurrentX(), getCurrentY(), level);
+  }
+
+  /**
+   * Draws this Piece at the given position with a reduced resolution image.
+   *
+   * @param g     the Graphics object to draw to
+   * @param level the level of detail, 0 is full resolution
+   */
+  public void draw(Graphics g, int x, int y, int level) {
+    markDrawn();
+    drawImage(g, x, y, level);
+  }
+
+  /**
+   * Draws this Piece at its current position with the image created by
+   * {@link #prepareImage(int)}. Nothing of the piece is changed, so several
+   * threads can draw prepared pieces at once.
+   *
+   * @param g     the Graphics object to draw to
+   * @param level the level of detail, 0 is full resolution
+   */
+  public void drawPrepared(Graphics g, int level) {
+    drawImage(g, getCurrentX(), getCurrentY(), level);
+  }
+
+  private void drawImage(Graphics g, int x, int y, int level) {
+    if (level <= 0) {
+      drawImage(g, x, y);
+      return;
+    }
+    Image levelImage = getLevelImage(level);
+    Graphics2D g2 = (Graphics2D) g;
+    beginRotatedDraw(g2, x, y);
+    g2.drawImage(levelImage, 0, 0, origWidth, origHeight, null);
+    endRotatedDraw(g2, x, y);
+  }
+
+  /** Returns the reduced image of the given level, creating it if needed. */
+  private synchronized Image getLevelImage(int level) {
+    Image levelImage = levels.getImage(level);
+    if (levelImage == null) {
+      levelImage = levels.createImage(level, getCurData(), origWidth, origHeight);
+    }
+    return levelImage;
+  }
+
+  /**
+   * Creates the image this piece is drawn with at the given level of detail,
+   * if it doesn't exist yet, and records that the piece is drawn. Afterwards
+   * the piece can be drawn with {@link #drawPrepared(Graphics, int)}.
+   *
+   * @param level the level of detail, 0 is full resolution
+   */
+  public void prepareImage(int level) {
+    markDrawn();
+    if (level <= 0) {
+      getImage();
+    } else {
+      getLevelImage(level);
+    }
+  }
+
+  /**
+   * Creates the highlight of this piece if it doesn't exist yet, see
+   * {@link #prepareImage(int)}. Afterwards the highlight can be drawn with
+   * {@link #drawPreparedHighlight(Graphics, boolean)}.
+   */
+  public void prepareHighlight() {
+    touch();
+    if (getCurrentOutline() == null) {
+      getHighlightImage();
+    }
+  }
+
+  /** Returns the highlight layer computed from the image data, creating it if needed. */
+  private synchronized Image getHighlightImage() {
+    if (hightlightImage == null) {
+      createHighlight();
+    }
+    return hightlightImage;
   }
 
   /**
@@ -474,7 +802,18 @@ public class Piece {
    * @param g the Graphics object to draw to
    */
   public void drawHighlight(Graphics g) {
-    drawHighlight(g, getCurrentX(), getCurrentY());
+    drawHighlight(g, getCurrentX(), getCurrentY(), true);
+  }
+
+  /**
+   * Draws this Pieces highlight at its current puzzle position.
+   *
+   * @param g      the Graphics object to draw to
+   * @param shadow false to draw only the outline. Pieces without an outline
+   *               always get their highlight layer, which has a shadow.
+   */
+  public void drawHighlight(Graphics g, boolean shadow) {
+    drawHighlight(g, getCurrentX(), getCurrentY(), shadow);
   }
 
   /**
@@ -484,13 +823,99 @@ public class Piece {
    * @param g the Graphics object to draw to
    */
   public void drawHighlight(Graphics g, int x, int y) {
-    if (hightlightImage != null) {
-      g.drawImage(hightlightImage, x - outlineSize - (shadowOffsetX < 0 ? -shadowOffsetX : 0),
+    drawHighlight(g, x, y, true);
+  }
+
+  /**
+   * Draws the highlight created by {@link #prepareHighlight()} at the current
+   * puzzle position, without changing anything of the piece.
+   *
+   * @param g      the Graphics object to draw to
+   * @param shadow false to draw only the outline
+   */
+  public void drawPreparedHighlight(Graphics g, boolean shadow) {
+    paintHighlight(g, getCurrentX(), getCurrentY(), shadow);
+  }
+
+  private void drawHighlight(Graphics g, int x, int y, boolean shadow) {
+    touch();
+    paintHighlight(g, x, y, shadow);
+  }
+
+  private void paintHighlight(Graphics g, int x, int y, boolean shadow) {
+    Shape shape = getCurrentOutline();
+    if (shape != null && g instanceof Graphics2D) {
+      drawOutlineHighlight((Graphics2D) g, shape, x, y, shadow);
+      return;
+    }
+    // no outline: fall back to the highlight layer computed from the image data
+    Image highlight = getHighlightImage();
+    if (highlight != null) {
+      g.drawImage(highlight, x - outlineSize - (shadowOffsetX < 0 ? -shadowOffsetX : 0),
               y - outlineSize - (shadowOffsetY < 0 ? -shadowOffsetY : 0), null);
     }
   }
 
 
+  /**
+   * Draws the highlight from the outline: a filled shadow, offset to the
+   * bottom right, and a stroked outline. The piece is drawn on top of it.
+   */
+  private void drawOutlineHighlight(Graphics2D g, Shape shape, int x, int y, boolean shadow) {
+    Paint oldPaint = g.getPaint();
+    Stroke oldStroke = g.getStroke();
+    g.translate(x, y);
+    if (shadow) {
+      g.translate(shadowOffsetX, shadowOffsetY);
+      g.setPaint(SHADOW_COLOR);
+      g.fill(shape);
+      g.translate(-shadowOffsetX, -shadowOffsetY);
+    }
+    g.setPaint(OUTLINE_COLOR);
+    g.setStroke(OUTLINE_STROKE);
+    g.draw(shape);
+    g.translate(-x, -y);
+    g.setStroke(oldStroke);
+    g.setPaint(oldPaint);
+  }
+
+  /**
+   * Sets the outline of this piece as it was cut, in coordinates of the
+   * whole image. The highlight is drawn from the outline instead of being
+   * computed from the image data.
+   */
+  public void setOutline(Shape outline) {
+    this.outline = outline;
+    this.currentOutline = null;
+  }
+
+  /** Returns the outline as set by the cutter, or null. */
+  public Shape getOutline() {
+    return outline;
+  }
+
+  /**
+   * Returns the outline in the current rotation, relative to the upper left
+   * corner of this piece, or null if this piece has no outline.
+   */
+  public synchronized Shape getCurrentOutline() {
+    if (currentOutline == null) {
+      currentOutline = createCurrentOutline();
+    }
+    return currentOutline;
+  }
+
+  /** Creates the outline in the current rotation, see {@link #getCurrentOutline()}. */
+  protected Shape createCurrentOutline() {
+    Shape shape = getOutline();
+    if (shape == null) {
+      return null;
+    }
+    AffineTransform transform = getRotationTransform();
+    transform.translate(-imageX, -imageY);
+    return transform.createTransformedShape(shape);
+  }
+
   /**
    * Returns whether this Piece currently contains the given point,
    * relative to the puzzle panel's upper-left corner.
@@ -507,7 +932,54 @@ public class Piece {
     return
         (puzX <= x) && (x <= (puzX + w - 1)) &&
             (puzY <= y) && (y <= (puzY + h - 1)) &&
-            (getAlpha(x - puzX, y - puzY) != 0);
+            isOpaque(x - puzX, y - puzY);
+  }
+
+  /**
+   * Returns whether the pixel at the given position in the current rotation
+   * is visible. The position is mapped back to the original orientation, so
+   * no rotated mask is needed.
+   */
+  private boolean isOpaque(int x, int y) {
+    if (masks[0] == null) {
+      masks[0] = CoverageMask.fromArgb(getCurData(), origWidth, origHeight);
+    }
+    return masks[0].get(toImageX(x, y), toImageY(x, y));
+  }
+
+  /**
+   * Returns whether the visible pixels of this piece overlap the visible
+   * pixels of the other piece at their current puzzle positions.
+   *
+   * @param other the other piece
+   * @return true if the pieces overlap
+   */
+  public boolean overlaps(Piece other) {
+    int dx = other.getPuzzleX() - getPuzzleX();
+    int dy = other.getPuzzleY() - getPuzzleY();
+    if (dx >= getCurrentWidth() || dy >= getCurrentHeight()
+        || -dx >= other.getCurrentWidth() || -dy >= other.getCurrentHeight()) {
+      return false;
+    }
+    return getMask().intersects(other.getMask(), dx, dy);
+  }
+
+  /**
+   * Returns the coverage mask of this piece in its current rotation. The
+   * mask of another rotation is rotated if possible, so no pixel data is
+   * needed.
+   *
+   * @return the coverage mask
+   */
+  public CoverageMask getMask() {
+    if (masks[0] == null) {
+      masks[0] = CoverageMask.fromArgb(getCurData(), origWidth, origHeight);
+    }
+    int index = getRotation() / 90;
+    if (masks[index] == null) {
+      masks[index] = masks[0].rotate(index);
+    }
+    return masks[index];
   }
 
   /**
@@ -519,7 +991,7 @@ public class Piece {
    * @return the alpha transparency at the given coordinates
    */
   protected int getAlpha(int x, int y) {
-    int pixel = curData[y * curWidth + x];
+    int pixel = getCurData()[toImageY(x, y) * origWidth + toImageX(x, y)];
     return (pixel >> 24) & 0xff;
   }
 
@@ -533,7 +1005,7 @@ public class Piece {
    */
   protected boolean isCloseTo(Piece piece) {
     // Don't even bother if they're not aligned.
-    int rotD = Math.abs(piece.getRotation() - rotation);
+    int rotD = Math.abs(piece.getRotation() - getRotation());
     rotD = Math.min(rotD, 360 - rotD);
     if (rotD > ROTATION_PROXIMITY_THRESHOLD) {
       return false;
@@ -575,11 +1047,11 @@ public class Piece {
     Piece[] ret = new Piece[close.size() + 2];
     ret[0] = newPiece;
     ret[1] = this;
-    this.image.flush();
+    this.absorb();
     int i = 2;
     for (Piece piece : close) {
       ret[i] = piece;
-      piece.image.flush();
+      piece.absorb();
       i++;
     }
     System.gc();
@@ -596,26 +1068,23 @@ public class Piece {
    * in the rotated puzzle.
    */
   protected void setRotatedPosition() {
+    int rotation = getRotation();
     if (rotation == 0) {
       rotatedX = imageX;
       rotatedY = imageY;
-      curWidth = origWidth;
-      curHeight = origHeight;
+      setCurrentSize(origWidth, origHeight);
     } else if (rotation == 90) {
       rotatedX = totalHeight - imageY - origHeight;
       rotatedY = imageX;
-      curWidth = origHeight;
-      curHeight = origWidth;
+      setCurrentSize(origHeight, origWidth);
     } else if (rotation == 180) {
       rotatedX = totalWidth - imageX - origWidth;
       rotatedY = totalHeight - imageY - origHeight;
-      curWidth = origWidth;
-      curHeight = origHeight;
+      setCurrentSize(origWidth, origHeight);
     } else if (rotation == 270) {
       rotatedX = imageY;
       rotatedY = totalWidth - imageX - origWidth;
-      curWidth = origHeight;
-      curHeight = origWidth;
+      setCurrentSize(origHeight, origWidth);
     }
   }
 
@@ -623,79 +1092,283 @@ public class Piece {
    * Recomputes this Piece's current image data and size from its original
    * image data and rotation.
    */
-  public void recomputeImageData() {
+  public synchronized void recomputeImageData() {
     setRotatedPosition();
 
-    long startTime = System.currentTimeMillis();
+    int[] data = new int[origWidth * origHeight];
+    int[] source;
+    if (arena != null) {
+      // loaded straight into the new array, the bevel is applied in place
+      arena.load(arenaHandle, data, data.length);
+      source = data;
+    } else {
+      decompress();
+      source = origData;
+    }
+    BevelUtil.bevel(source, data, origWidth, origHeight, 5);
+    curData = data;
+    imageChanged();
+    if (masks[0] == null) {
+      // create the mask while the data is there
+      masks[0] = CoverageMask.fromArgb(curData, origWidth, origHeight);
+    }
+    // the highlight layer is created when the piece is highlighted for the first time
+  }
 
-    if (rotation == 0) {
-      curData = origData.clone();
-    } else if (rotation == 90) {
-      curData = new int[origData.length];
-      for (int i = 0; i < curWidth; i++) {
-        for (int j = 0; j < curHeight; j++) {
-          curData[j * curWidth + i] =
-              origData[(origHeight - i - 1) * origWidth + j];
+  /**
+   * Returns a copy of the data (in the original orientation) rotated
+   * clockwise by the given angle (0, 90, 180 or 270 degrees).
+   */
+  static int[] rotate(int[] data, int width, int height, int rotation) {
+    int[] result = new int[data.length];
+    if (rotation == 90) {
+      // the rotated data is height pixels wide
+      for (int i = 0; i < height; i++) {
+        for (int j = 0; j < width; j++) {
+          result[j * height + i] = data[(height - i - 1) * width + j];
         }
       }
     } else if (rotation == 180) {
-      curData = new int[origData.length];
-      /*
-       * for (int i = 0; i < curWidth; i++)
-       * for (int j = 0; j < curHeight; j++)
-       * curData[j*curWidth+i] =
-       * origData[(origHeight-j-1)*origWidth + (origWidth-i-1)];
-       */
       // it's just a reverse
-      for (int i = 0; i < origData.length; i++) {
-        curData[i] = origData[origData.length - i - 1];
+      for (int i = 0; i < data.length; i++) {
+        result[i] = data[data.length - i - 1];
       }
     } else if (rotation == 270) {
-      curData = new int[origData.length];
-      for (int i = 0; i < curWidth; i++) {
-        for (int j = 0; j < curHeight; j++) {
-          curData[j * curWidth + i] =
-              origData[i * origWidth + (origWidth - j - 1)];
+      for (int i = 0; i < height; i++) {
+        for (int j = 0; j < width; j++) {
+          result[j * height + i] = data[i * width + (width - j - 1)];
         }
       }
+    } else {
+      System.arraycopy(data, 0, result, 0, data.length);
     }
-    long currentDataTime = System.currentTimeMillis();
-    curData = BevelUtil.bevel(curData, curWidth, curHeight,5);
-    long bevelTime = System.currentTimeMillis();
+    return result;
+  }
+
+  /**
+   * Creates the highlight layer (outline and shadow) from the current image data.
+   */
+  protected void createHighlight() {
+    int curWidth = getCurrentWidth();
+    int curHeight = getCurrentHeight();
     //highlightData = BevelUtil.glow(curData, curWidth, curHeight, highlightSize, 0x40FFFF00);
+    // the shadow is offset on the screen, so the layer is made from the rotated data
     highlightData = BevelUtil.createOutlineAndShadowOverlay(
-            curData, curWidth, curHeight,
+            rotate(getCurData(), origWidth, origHeight, getRotation()), curWidth, curHeight,
             outlineSize, 0x80FF0000, // 3px red outline (50% alpha)
             shadowOffsetX, shadowOffsetY, 0x80000000 // 2px offset black shadow (25% alpha)
     );
-    long highlightTime = System.currentTimeMillis();
-    highlightWidth = curWidth +  Math.abs(shadowOffsetX) + outlineSize * 2;;
-    highlightHeight = curHeight + Math.abs(shadowOffsetY) + outlineSize * 2;;
-    image = Toolkit.getDefaultToolkit().createImage(new MemoryImageSource(curWidth, curHeight, curData, 0, curWidth));
-    long imageTime = System.currentTimeMillis();
+    highlightWidth = curWidth + Math.abs(shadowOffsetX) + outlineSize * 2;
+    highlightHeight = curHeight + Math.abs(shadowOffsetY) + outlineSize * 2;
+    if (hightlightImage != null) {
+      hightlightImage.flush();
+    }
     hightlightImage = Toolkit.getDefaultToolkit().createImage(new MemoryImageSource(highlightWidth, highlightHeight, highlightData, 0, highlightWidth));
-    long highlightImageTime = System.currentTimeMillis();
+  }
 
-    this.currentDataDuration = currentDataTime - startTime;
-    this.bevelDuration = bevelTime - currentDataTime;
-    this.highlightDuration = highlightTime - bevelTime;
-    this.imageDuration = imageTime - highlightTime;
-    this.highlightImageDuration = highlightImageTime - imageTime;
+  // Idle compression -----------------------------------------------------
+
+  /**
+   * Marks this piece as used, so it is not compressed while it is in use.
+   * The data is decompressed when it is needed, see {@link #decompress()}.
+   */
+  protected void touch() {
+    lastTouched = System.nanoTime();
+    queueForCompression();
+  }
+
+  /** Puts this piece into the idle queue of its bin, see {@link PiecesBin#compressIdlePieces(long, long)}. */
+  private void queueForCompression() {
+    PiecesBin currentBin = bin;
+    if (!queued && currentBin != null) {
+      currentBin.queueIdle(this);
+    }
+  }
+
+  /**
+   * Decodes the compressed original data. It is kept until the next
+   * {@link #compress()}. The caller must hold the lock of this piece.
+   */
+  private void decompress() {
+    if (compressedData != null) {
+      origData = PixelCodec.decode(compressedData, origWidth * origHeight);
+      compressedData = null;
+      queueForCompression();
+    }
+  }
+
+  /** Returns the time (System.nanoTime) when this piece was last used. */
+  public long getLastTouched() {
+    return lastTouched;
+  }
+
+  /** Records that this piece is drawn now. */
+  void markDrawn() {
+    lastDrawn = System.nanoTime();
+    queueForCompression();
+  }
+
+  /** Returns the time (System.nanoTime) when this piece was last drawn, or 0 if it was never drawn. */
+  public long getLastDrawn() {
+    return lastDrawn;
+  }
+
+  public boolean isCompressed() {
+    return compressedData != null;
+  }
+
+  /**
+   * Marks this piece as part of a MultiPiece. It is not drawn by itself
+   * anymore, so the image can be thrown away.
+   */
+  protected void absorb() {
+    if (image != null) {
+      image.flush();
+    }
+  }
+
+
+  /**
+   * Reduces the memory of this piece while it is not used. The original data
+   * is compressed and the render data (see {@link #releaseRenderData()}) is
+   * thrown away. Everything is restored transparently when it is needed
+   * again.
+   *
+   * @return true if memory was freed
+   */
+  public synchronized boolean compress() {
+    boolean freed = false;
+    if (origData != null) {
+      compressedData = PixelCodec.encode(origData);
+      origData = null;
+      freed = true;
+    }
+    if (releaseRenderData() > 0) {
+      freed = true;
+    }
+    return freed;
+  }
+
+  /**
+   * Throws away everything which is created from the original data: the
+   * current data with its image, the highlight and the reduced images. Unlike
+   * {@link #compress()} this also drops the current data of pieces which are
+   * drawn by themselves. Everything is recreated when the piece is drawn the
+   * next time.
+   *
+   * @return the number of bytes freed
+   */
+  public synchronized long releaseRenderData() {
+    long freed = getRenderDataSize();
+    clearHighlight();
+    levels.clear();
+    if (image != null) {
+      image.flush();
+      image = null;
+    }
+    curData = null;
+    return freed;
+  }
+
+  /** Returns the memory used by the original data, compressed or not. */
+  public synchronized long getOrigDataSize() {
+    long size = 0;
+    if (origData != null) {
+      size += origData.length * 4L;
+    }
+    if (compressedData != null) {
+      size += compressedData.length;
+    }
+    return size;
+  }
+
+  /** Returns the memory used by the data {@link #releaseRenderData()} throws away. */
+  public synchronized long getRenderDataSize() {
+    long size = levels.getByteSize();
+    if (curData != null) {
+      size += curData.length * 4L;
+    }
+    if (highlightData != null) {
+      size += highlightData.length * 4L;
+    }
+    return size;
   }
 
   public Image getHightlightImage() {
     return hightlightImage;
   }
 
-  public int[] getCurData() {
+  public synchronized int[] getCurData() {
+    if (curData == null) {
+      recomputeImageData();
+    }
     return curData;
   }
 
+  /**
+   * Returns the original data. Compressed data is decoded and kept. When the
+   * data is kept in a {@link PixelArena}, this is a new copy on each call; use
+   * {@link #copyOrigData(int[])} with a reused array where that matters.
+   */
   public int[] getOrigData() {
-    return origData;
+    if (arena != null) {
+      return arena.load(arenaHandle, origWidth * origHeight);
+    }
+    synchronized (this) {
+      decompress();
+      return origData;
+    }
+  }
+
+  /**
+   * Copies the original data into the destination, which must hold at least
+   * {@link #getImageWidth()} * {@link #getImageHeight()} pixels. Nothing is
+   * allocated, also when the data is in a {@link PixelArena} or compressed.
+   */
+  public void copyOrigData(int[] destination) {
+    int length = origWidth * origHeight;
+    if (arena != null) {
+      arena.load(arenaHandle, destination, length);
+      return;
+    }
+    byte[] compressed;
+    int[] data;
+    synchronized (this) {
+      compressed = compressedData;
+      data = origData;
+    }
+    if (compressed != null) {
+      PixelCodec.decode(compressed, destination, length);
+    } else {
+      System.arraycopy(data, 0, destination, 0, length);
+    }
   }
 
   public int[] getHighlightData() {
     return highlightData;
   }
+
+  /**
+   * Adds the memory used by this piece to the breakdown. The original data in
+   * a {@link PixelArena} is counted by the arena.
+   */
+  public synchronized void accountMemory(MemoryBreakdown breakdown) {
+    breakdown.addPixels(Category.ORIGINAL, origData);
+    if (compressedData != null) {
+      breakdown.add(Category.ORIGINAL, compressedData.length);
+    }
+    breakdown.addPixels(getRenderedCategory(), curData);
+    breakdown.addPixels(Category.HIGHLIGHT, highlightData);
+    breakdown.add(Category.CACHES, levels.getByteSize());
+    for (CoverageMask mask : masks) {
+      if (mask != null) {
+        breakdown.add(Category.CACHES, mask.getByteSize());
+      }
+    }
+  }
+
+  /** Returns the category of the current data of this piece. */
+  protected Category getRenderedCategory() {
+    return Category.RENDERED;
+  }
 }
@@ -0,0 +1,397 @@
+package uk.co.petertribble.sphaero2.model;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Packs the images of the pieces of a bin into a few large pages, so Java2D
+ * caches a few big surfaces instead of one small image per piece.
+ * <p>
+ * Pieces are added when they are drawn for the first time. The pages are
+ * filled with shelves: rows of pieces with about the same height. Pieces are
+ * packed in their original orientation and rotated when they are drawn. When
+ * the image of a piece changes its old slot is freed and it is packed again. Free slots are reused, and a page which has more
+ * free than used area is compacted. Pieces which left the bin are dropped
+ * before a new page is started.
+ * <p>
+ * The atlas is off by default, because the pages keep a second copy of the
+ * pixels of the packed pieces which a {@link MemoryBudget} cannot release.
+ * It is switched on by setting the system property <code>sphaero2.atlas</code>
+ * to <code>true</code>; the size of a page is set with
+ * <code>sphaero2.atlas.pageSize</code>.
+ * <p>
+ * Pieces can be drawn from several threads at once. Packing is synchronized,
+ * the pixels are copied from the pages outside of the lock.
+ */
+public class PieceAtlas {
+
+  public static final String PROPERTY = "sphaero2.atlas";
+  public static final String PAGE_SIZE_PROPERTY = "sphaero2.atlas.pageSize";
+  public static final int DEFAULT_PAGE_SIZE = 2048;
+  /** Space between two pieces, so filtering doesn't pick up a neighbour. */
+  private static final int PADDING = 1;
+
+  private final PiecesBin bin;
+  private final int pageSize;
+  private final List<Page> pages = new ArrayList<>();
+
+  // Entries by piece id. entryPage is -1 when the piece has no entry.
+  private Piece[] entryPiece = new Piece[0];
+  private int[] entryPage = new int[0];
+  private int[] entryX = new int[0];
+  private int[] entryY = new int[0];
+  private int[] entryWidth = new int[0];
+  private int[] entryHeight = new int[0];
+  private int[] entryVersion = new int[0];
+
+  public PieceAtlas(PiecesBin bin, int pageSize) {
+    this.bin = bin;
+    this.pageSize = pageSize;
+  }
+
+  /**
+   * Returns a new atlas for the bin as configured by the system properties,
+   * or null if the atlas is disabled.
+   */
+  public static PieceAtlas fromSystemProperty(PiecesBin bin) {
+    if (!Boolean.getBoolean(PROPERTY)) {
+      return null;
+    }
+    return new PieceAtlas(bin, Integer.getInteger(PAGE_SIZE_PROPERTY, DEFAULT_PAGE_SIZE));
+  }
+
+  /**
+   * Draws the current image of the piece at the given position. The piece is
+   * packed into the atlas if needed.
+   *
+   * @return false if the piece doesn't fit into a page. It has to be drawn by
+   * the caller.
+   */
+  public synchronized boolean draw(Graphics g, Piece piece, int x, int y) {
+    if (!prepare(piece)) {
+      return false;
+    }
+    drawEntry(g, piece, x, y);
+    return true;
+  }
+
+  /**
+   * Packs the piece if needed and records that it is drawn. Afterwards the
+   * piece can be drawn with {@link #drawPrepared(Graphics, Piece)} until the
+   * atlas is changed again.
+   *
+   * @return false if the piece is too large for a page
+   */
+  public synchronized boolean prepare(Piece piece) {
+    if (!ensurePacked(piece)) {
+      return false;
+    }
+    piece.markDrawn();
+    return true;
+  }
+
+  /**
+   * Draws a piece packed by {@link #prepare(Piece)} at its current position.
+   * Nothing is changed and no lock is taken, so several threads can draw at
+   * once while the atlas is not changed.
+   */
+  public void drawPrepared(Graphics g, Piece piece) {
+    drawEntry(g, piece, piece.getCurrentX(), piece.getCurrentY());
+  }
+
+  private void drawEntry(Graphics g, Piece piece, int x, int y) {
+    int id = piece.getId();
+    int sx = entryX[id];
+    int sy = entryY[id];
+    int width = entryWidth[id];
+    int height = entryHeight[id];
+    Image page = pages.get(entryPage[id]).image;
+    if (piece.getRotation() == 0) {
+      g.drawImage(page, x, y, x + width, y + height, sx, sy, sx + width, sy + height, null);
+    } else {
+      // the pieces are packed in their original orientation
+      Graphics2D g2 = (Graphics2D) g;
+      piece.beginRotatedDraw(g2, x, y);
+      g2.drawImage(page, 0, 0, width, height, sx, sy, sx + width, sy + height, null);
+      piece.endRotatedDraw(g2, x, y);
+    }
+  }
+
+  /**
+   * Returns true if the current image of the piece is in the atlas. Takes no
+   * lock, see {@link #drawPrepared(Graphics, Piece)}.
+   */
+  public boolean isPacked(Piece piece) {
+    int id = piece.getId();
+    return id >= 0 && id < entryPiece.length && entryPiece[id] == piece && entryPage[id] >= 0
+        && entryVersion[id] == piece.getImageVersion();
+  }
+
+  /**
+   * Makes sure the current image of the piece is in the atlas.
+   *
+   * @return false if the piece is too large for a page
+   */
+  public synchronized boolean ensurePacked(Piece piece) {
+    int id = piece.getId();
+    if (id < 0) {
+      return false;
+    }
+    if (isPacked(piece)) {
+      return true;
+    }
+    int width = piece.getImageWidth();
+    int height = piece.getImageHeight();
+    if (width + 2 * PADDING > pageSize || height + 2 * PADDING > pageSize) {
+      return false;
+    }
+    if (id < entryPiece.length && entryPage[id] >= 0) {
+      release(id);
+    }
+    int[] data = piece.getCurData();
+    ensureCapacity(id);
+    if (!place(id, width, height)) {
+      // make room by dropping the pieces which left the bin before adding a page
+      if (!releaseStale() || !place(id, width, height)) {
+        pages.add(new Page(pageSize));
+        place(id, width, height);
+      }
+    }
+    entryPiece[id] = piece;
+    entryVersion[id] = piece.getImageVersion();
+    // setDataElements keeps the page managed (cached in video memory)
+    Page page = pages.get(entryPage[id]);
+    WritableRaster raster = page.image.getRaster();
+    raster.setDataElements(entryX[id], entryY[id], width, height, data);
+    // a reused slot may still contain pixels of the piece which was there before
+    raster.setDataElements(entryX[id] + width, entryY[id], PADDING, height + PADDING, page.empty);
+    raster.setDataElements(entryX[id], entryY[id] + height, width, PADDING, page.empty);
+    return true;
+  }
+
+  /** Removes the piece from the atlas. */
+  public synchronized void remove(Piece piece) {
+    int id = piece.getId();
+    if (id >= 0 && id < entryPiece.length && entryPiece[id] == piece && entryPage[id] >= 0) {
+      release(id);
+    }
+  }
+
+  /** Removes all pieces and throws away the pages. */
+  public synchronized void clear() {
+    for (Page page : pages) {
+      page.image.flush();
+    }
+    pages.clear();
+    Arrays.fill(entryPiece, null);
+    Arrays.fill(entryPage, -1);
+  }
+
+  public synchronized int getPageCount() {
+    return pages.size();
+  }
+
+  /** Returns the memory used by the pixel data of the pages. */
+  public synchronized long getByteSize() {
+    return pages.size() * (long) pageSize * pageSize * 4;
+  }
+
+  /** Finds a slot for the entry in one of the pages and sets its position. */
+  private boolean place(int id, int width, int height) {
+    int paddedWidth = width + PADDING;
+    int paddedHeight = height + PADDING;
+    for (int i = 0; i < pages.size(); i++) {
+      Page page = pages.get(i);
+      if (page.allocate(paddedWidth, paddedHeight)) {
+        entryPage[id] = i;
+        entryX[id] = page.resultX;
+        entryY[id] = page.resultY;
+        entryWidth[id] = width;
+        entryHeight[id] = height;
+        page.entries++;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void release(int id) {
+    int pageIndex = entryPage[id];
+    Page page = pages.get(pageIndex);
+    page.free(entryX[id], entryY[id], entryWidth[id] + PADDING, entryHeight[id] + PADDING);
+    page.entries--;
+    entryPage[id] = -1;
+    entryPiece[id] = null;
+    if (page.entries > 0 && page.freeArea > page.usedArea) {
+      compact(pageIndex);
+    }
+  }
+
+  /** Releases the entries of pieces which are not in the bin anymore. */
+  private boolean releaseStale() {
+    boolean released = false;
+    for (int id = 0; id < entryPiece.length; id++) {
+      Piece piece = entryPiece[id];
+      if (piece != null && entryPage[id] >= 0 && piece.getBin() != bin) {
+        release(id);
+        released = true;
+      }
+    }
+    return released;
+  }
+
+  /**
+   * Packs the entries of a page again, highest first, into a new page. The
+   * pixels are copied from the old page, so no piece is rendered again.
+   */
+  private void compact(int pageIndex) {
+    Page oldPage = pages.get(pageIndex);
+    List<Integer> ids = new ArrayList<>();
+    for (int id = 0; id < entryPage.length; id++) {
+      if (entryPage[id] == pageIndex) {
+        ids.add(id);
+      }
+    }
+    ids.sort((a, b) -> Integer.compare(entryHeight[b], entryHeight[a]));
+
+    Page newPage = new Page(pageSize);
+    pages.set(pageIndex, newPage);
+    for (int id : ids) {
+      int width = entryWidth[id];
+      int height = entryHeight[id];
+      if (!newPage.allocate(width + PADDING, height + PADDING)) {
+        // should not happen; the piece is packed again when it is drawn
+        entryPage[id] = -1;
+        entryPiece[id] = null;
+        continue;
+      }
+      Object pixels = oldPage.image.getRaster().getDataElements(entryX[id], entryY[id], width, height, null);
+      entryX[id] = newPage.resultX;
+      entryY[id] = newPage.resultY;
+      newPage.image.getRaster().setDataElements(entryX[id], entryY[id], width, height, pixels);
+      newPage.entries++;
+    }
+    oldPage.image.flush();
+  }
+
+  private void ensureCapacity(int id) {
+    if (id < entryPiece.length) {
+      return;
+    }
+    int oldLength = entryPiece.length;
+    int capacity = Math.max(id + 1, Math.max(64, oldLength * 2));
+    entryPiece = Arrays.copyOf(entryPiece, capacity);
+    entryPage = Arrays.copyOf(entryPage, capacity);
+    Arrays.fill(entryPage, oldLength, capacity, -1);
+    entryX = Arrays.copyOf(entryX, capacity);
+    entryY = Arrays.copyOf(entryY, capacity);
+    entryWidth = Arrays.copyOf(entryWidth, capacity);
+    entryHeight = Arrays.copyOf(entryHeight, capacity);
+    entryVersion = Arrays.copyOf(entryVersion, capacity);
+  }
+
+  /**
+   * One image of the atlas with its shelves. A shelf is a row with a fixed
+   * height which is filled from left to right.
+   */
+  static class Page {
+    final BufferedImage image;
+    final int size;
+    /** Transparent pixels to clear the padding around a piece, long enough for any side. */
+    final int[] empty;
+    // shelves as parallel lists: top, height and first free x
+    int[] shelfY = new int[8];
+    int[] shelfHeight = new int[8];
+    int[] shelfX = new int[8];
+    int shelfCount;
+    /** Top of the area without shelves. */
+    int nextShelfY = PADDING;
+    /** Freed slots which can be used again. */
+    final List<Rectangle> freeSlots = new ArrayList<>();
+    long usedArea;
+    long freeArea;
+    int entries;
+    /** Position of the last allocation. */
+    int resultX;
+    int resultY;
+
+    Page(int size) {
+      this.size = size;
+      this.image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+      this.empty = new int[size];
+    }
+
+    boolean allocate(int width, int height) {
+      if (allocateFreeSlot(width, height) || allocateOnShelf(width, height)) {
+        usedArea += (long) width * height;
+        return true;
+      }
+      return false;
+    }
+
+    /** Uses the smallest free slot the piece fits into. */
+    private boolean allocateFreeSlot(int width, int height) {
+      Rectangle best = null;
+      for (Rectangle slot : freeSlots) {
+        if (slot.width >= width && slot.height >= height
+            && (best == null || slot.width * slot.height < best.width * best.height)) {
+          best = slot;
+        }
+      }
+      if (best == null) {
+        return false;
+      }
+      freeSlots.remove(best);
+      freeArea -= (long) best.width * best.height;
+      resultX = best.x;
+      resultY = best.y;
+      // the rest on the right stays free
+      if (best.width > width) {
+        freeSlots.add(new Rectangle(best.x + width, best.y, best.width - width, best.height));
+        freeArea += (long) (best.width - width) * best.height;
+      }
+      return true;
+    }
+
+    /** Uses the lowest shelf the piece fits into, or starts a new shelf. */
+    private boolean allocateOnShelf(int width, int height) {
+      int best = -1;
+      for (int i = 0; i < shelfCount; i++) {
+        if (shelfHeight[i] >= height && shelfX[i] + width <= size
+            && (best < 0 || shelfHeight[i] < shelfHeight[best])) {
+          best = i;
+        }
+      }
+      // don't waste a high shelf for a flat piece when a new shelf fits
+      if ((best < 0 || shelfHeight[best] > height * 3 / 2) && nextShelfY + height <= size) {
+        if (shelfCount == shelfY.length) {
+          shelfY = Arrays.copyOf(shelfY, shelfCount * 2);
+          shelfHeight = Arrays.copyOf(shelfHeight, shelfCount * 2);
+          shelfX = Arrays.copyOf(shelfX, shelfCount * 2);
+        }
+        best = shelfCount++;
+        shelfY[best] = nextShelfY;
+        shelfHeight[best] = height;
+        shelfX[best] = PADDING;
+        nextShelfY += height;
+      }
+      if (best < 0) {
+        return false;
+      }
+      resultX = shelfX[best];
+      resultY = shelfY[best];
+      shelfX[best] += width;
+      return true;
+    }
+
+    void free(int x, int y, int width, int height) {
+      usedArea -= (long) width * height;
+      freeArea += (long) width * height;
+      freeSlots.add(new Rectangle(x, y, width, height));
+    }
+  }
+}
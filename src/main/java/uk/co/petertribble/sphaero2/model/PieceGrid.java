@@ -0,0 +1,269 @@
+package uk.co.petertribble.sphaero2.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spatial index for the pieces of a {@link PiecesBin}.
+ * <p>
+ * The puzzle area is divided into square cells. Each piece is registered in
+ * every cell its bounds overlap, so point and rectangle queries only have to
+ * look at the pieces in the touched cells. Pieces which would span a lot of
+ * cells (big MultiPieces) are kept in a separate list which is checked on
+ * every query, so moving them doesn't update hundreds of cells.
+ * <p>
+ * The grid only knows the bounds of the pieces. Queries return pieces in no
+ * particular order; sorting by z-order is done by the caller.
+ * <p>
+ * Cells are kept in a map with primitive keys and are not removed when they
+ * become empty, so moving pieces around doesn't create garbage.
+ */
+public class PieceGrid {
+
+  /** Pieces spanning more cells than this are not stored in the cells. */
+  private static final int MAX_CELLS_PER_PIECE = 64;
+
+  private final int cellSize;
+  /** Cells by packed cell coordinate. */
+  private final CellMap cells = new CellMap();
+  /** Cell range (minCx, minCy, maxCx, maxCy) of each piece stored in the cells. */
+  private final Map<Piece, int[]> ranges = new IdentityHashMap<>();
+  /** Pieces which are too big to be stored in the cells. */
+  private final List<Piece> large = new ArrayList<>();
+
+  public PieceGrid(int cellSize) {
+    this.cellSize = Math.max(1, cellSize);
+  }
+
+  public int getCellSize() {
+    return cellSize;
+  }
+
+  /** Removes all pieces from the grid. */
+  public void clear() {
+    cells.clear();
+    ranges.clear();
+    large.clear();
+  }
+
+  /** Adds the piece with its current bounds. */
+  public void add(Piece piece) {
+    int minCx = cell(piece.getPuzzleX());
+    int minCy = cell(piece.getPuzzleY());
+    int maxCx = cell(piece.getPuzzleX() + piece.getCurrentWidth() - 1);
+    int maxCy = cell(piece.getPuzzleY() + piece.getCurrentHeight() - 1);
+    if ((long) (maxCx - minCx + 1) * (maxCy - minCy + 1) > MAX_CELLS_PER_PIECE) {
+      large.add(piece);
+      return;
+    }
+    int[] range = {minCx, minCy, maxCx, maxCy};
+    ranges.put(piece, range);
+    addToCells(piece, range);
+  }
+
+  private void addToCells(Piece piece, int[] range) {
+    for (int cy = range[1]; cy <= range[3]; cy++) {
+      for (int cx = range[0]; cx <= range[2]; cx++) {
+        cells.getOrCreate(key(cx, cy)).add(piece);
+      }
+    }
+  }
+
+  private void removeFromCells(Piece piece, int[] range) {
+    for (int cy = range[1]; cy <= range[3]; cy++) {
+      for (int cx = range[0]; cx <= range[2]; cx++) {
+        List<Piece> cell = cells.get(key(cx, cy));
+        if (cell != null) {
+          cell.remove(piece);
+        }
+      }
+    }
+  }
+
+  /** Removes the piece. */
+  public void remove(Piece piece) {
+    int[] range = ranges.remove(piece);
+    if (range == null) {
+      large.remove(piece);
+      return;
+    }
+    removeFromCells(piece, range);
+  }
+
+  /** Updates the grid after the piece was moved or its size changed. */
+  public void update(Piece piece) {
+    int[] range = ranges.get(piece);
+    if (range == null) {
+      remove(piece);
+      add(piece);
+      return;
+    }
+    int minCx = cell(piece.getPuzzleX());
+    int minCy = cell(piece.getPuzzleY());
+    int maxCx = cell(piece.getPuzzleX() + piece.getCurrentWidth() - 1);
+    int maxCy = cell(piece.getPuzzleY() + piece.getCurrentHeight() - 1);
+    if (range[0] == minCx && range[1] == minCy && range[2] == maxCx && range[3] == maxCy) {
+      // still in the same cells
+      return;
+    }
+    if ((long) (maxCx - minCx + 1) * (maxCy - minCy + 1) > MAX_CELLS_PER_PIECE) {
+      remove(piece);
+      add(piece);
+      return;
+    }
+    // reuse the range of the piece
+    removeFromCells(piece, range);
+    range[0] = minCx;
+    range[1] = minCy;
+    range[2] = maxCx;
+    range[3] = maxCy;
+    addToCells(piece, range);
+  }
+
+  /**
+   * Adds all pieces whose bounds contain the point to the result.
+   */
+  public void findAt(int x, int y, Collection<Piece> result) {
+    List<Piece> cell = cells.get(key(cell(x), cell(y)));
+    if (cell != null) {
+      for (Piece piece : cell) {
+        if (boundsContain(piece, x, y)) {
+          result.add(piece);
+        }
+      }
+    }
+    for (Piece piece : large) {
+      if (boundsContain(piece, x, y)) {
+        result.add(piece);
+      }
+    }
+  }
+
+  /**
+   * Adds all pieces whose bounds intersect the rectangle to the result. Each
+   * piece is added only once.
+   */
+  public void findIn(int x, int y, int width, int height, Collection<Piece> result) {
+    if (width <= 0 || height <= 0) {
+      return;
+    }
+    int minCx = cell(x);
+    int minCy = cell(y);
+    int maxCx = cell(x + width - 1);
+    int maxCy = cell(y + height - 1);
+    for (int cy = minCy; cy <= maxCy; cy++) {
+      for (int cx = minCx; cx <= maxCx; cx++) {
+        List<Piece> cell = cells.get(key(cx, cy));
+        if (cell == null) {
+          continue;
+        }
+        for (Piece piece : cell) {
+          int[] range = ranges.get(piece);
+          // a piece spanning several cells is only reported in the first cell of the query it is in.
+          if (cx == Math.max(range[0], minCx) && cy == Math.max(range[1], minCy)
+              && boundsIntersect(piece, x, y, width, height)) {
+            result.add(piece);
+          }
+        }
+      }
+    }
+    for (Piece piece : large) {
+      if (boundsIntersect(piece, x, y, width, height)) {
+        result.add(piece);
+      }
+    }
+  }
+
+  private int cell(int coordinate) {
+    return Math.floorDiv(coordinate, cellSize);
+  }
+
+  private static long key(int cx, int cy) {
+    return ((long) cx << 32) | (cy & 0xffffffffL);
+  }
+
+  private static boolean boundsContain(Piece piece, int x, int y) {
+    int px = piece.getPuzzleX();
+    int py = piece.getPuzzleY();
+    return px <= x && x < px + piece.getCurrentWidth()
+        && py <= y && y < py + piece.getCurrentHeight();
+  }
+
+  /**
+   * Hash map from packed cell coordinates to cells with open addressing, so
+   * lookups don't box the keys.
+   */
+  private static final class CellMap {
+    private long[] keys = new long[64];
+    private Object[] values = new Object[64];
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    List<Piece> get(long key) {
+      int mask = keys.length - 1;
+      for (int i = hash(key) & mask; values[i] != null; i = (i + 1) & mask) {
+        if (keys[i] == key) {
+          return (List<Piece>) values[i];
+        }
+      }
+      return null;
+    }
+
+    List<Piece> getOrCreate(long key) {
+      List<Piece> cell = get(key);
+      if (cell == null) {
+        if ((size + 1) * 2 > keys.length) {
+          resize();
+        }
+        cell = new ArrayList<>(4);
+        put(key, cell);
+      }
+      return cell;
+    }
+
+    private void put(long key, Object value) {
+      int mask = keys.length - 1;
+      int i = hash(key) & mask;
+      while (values[i] != null) {
+        i = (i + 1) & mask;
+      }
+      keys[i] = key;
+      values[i] = value;
+      size++;
+    }
+
+    private void resize() {
+      long[] oldKeys = keys;
+      Object[] oldValues = values;
+      keys = new long[oldKeys.length * 2];
+      values = new Object[oldValues.length * 2];
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldValues[i] != null) {
+          put(oldKeys[i], oldValues[i]);
+        }
+      }
+    }
+
+    void clear() {
+      Arrays.fill(values, null);
+      size = 0;
+    }
+
+    private static int hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+    }
+  }
+
+  private static boolean boundsIntersect(Piece piece, int x, int y, int width, int height) {
+    int px = piece.getPuzzleX();
+    int py = piece.getPuzzleY();
+    return px < x + width && x < px + piece.getCurrentWidth()
+        && py < y + height && y < py + piece.getCurrentHeight();
+  }
+}
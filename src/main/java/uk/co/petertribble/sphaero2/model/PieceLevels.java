@@ -0,0 +1,152 @@
+package uk.co.petertribble.sphaero2.model;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Reduced resolution images (mipmaps) of a piece, used when the puzzle is
+ * zoomed out.
+ * <p>
+ * Level 0 is the piece image itself and is not kept here. Level 1 has half
+ * the width and height, level 2 a quarter and level 3 an eighth. Each level is
+ * created from the level above it when it is needed for the first time.
+ */
+public class PieceLevels {
+
+  /** Number of reduced levels. */
+  public static final int LEVELS = 3;
+
+  private final int[] widths = new int[LEVELS + 1];
+  private final int[] heights = new int[LEVELS + 1];
+  private final BufferedImage[] images = new BufferedImage[LEVELS + 1];
+
+  /**
+   * Returns the level which matches the scale the piece is drawn with. The
+   * level image is at least as big as the piece on screen.
+   */
+  public static int levelForScale(float scale) {
+    int level = 0;
+    while (level < LEVELS && scale <= 0.5f) {
+      scale *= 2;
+      level++;
+    }
+    return level;
+  }
+
+  /**
+   * Returns the image of the given level (1 to {@link #LEVELS}), or null if
+   * it was not created yet.
+   */
+  public BufferedImage getImage(int level) {
+    return images[level];
+  }
+
+  /**
+   * Creates the image of the given level (1 to {@link #LEVELS}) and the
+   * levels above it.
+   *
+   * @param level  the level
+   * @param source the current data of the piece (level 0)
+   * @param width  width of the piece
+   * @param height height of the piece
+   * @return the image of the level
+   */
+  public BufferedImage createImage(int level, int[] source, int width, int height) {
+    if (images[level] == null) {
+      createLevel(level, source, width, height);
+    }
+    return images[level];
+  }
+
+  private void createLevel(int level, int[] source, int width, int height) {
+    int[] sourceData;
+    int sourceWidth;
+    int sourceHeight;
+    if (level == 1) {
+      sourceData = source;
+      sourceWidth = width;
+      sourceHeight = height;
+    } else {
+      if (images[level - 1] == null) {
+        createLevel(level - 1, source, width, height);
+      }
+      sourceWidth = widths[level - 1];
+      sourceHeight = heights[level - 1];
+      // the pixels are only kept in the image
+      sourceData = (int[]) images[level - 1].getRaster().getDataElements(0, 0, sourceWidth, sourceHeight, null);
+    }
+    int levelWidth = Math.max(1, (sourceWidth + 1) / 2);
+    int levelHeight = Math.max(1, (sourceHeight + 1) / 2);
+    int[] levelData = halve(sourceData, sourceWidth, sourceHeight, levelWidth, levelHeight);
+    widths[level] = levelWidth;
+    heights[level] = levelHeight;
+
+    BufferedImage image = new BufferedImage(levelWidth, levelHeight, BufferedImage.TYPE_INT_ARGB);
+    // setDataElements keeps the image managed (cached in video memory)
+    image.getRaster().setDataElements(0, 0, levelWidth, levelHeight, levelData);
+    images[level] = image;
+  }
+
+  /**
+   * Averages each 2x2 block of ARGB pixels. Colours are weighted with their
+   * alpha value, so transparent pixels don't darken the edges.
+   */
+  static int[] halve(int[] source, int width, int height, int newWidth, int newHeight) {
+    int[] result = new int[newWidth * newHeight];
+    for (int y = 0; y < newHeight; y++) {
+      int sy = y * 2;
+      int sy2 = Math.min(sy + 1, height - 1);
+      for (int x = 0; x < newWidth; x++) {
+        int sx = x * 2;
+        int sx2 = Math.min(sx + 1, width - 1);
+        int p0 = source[sy * width + sx];
+        int p1 = source[sy * width + sx2];
+        int p2 = source[sy2 * width + sx];
+        int p3 = source[sy2 * width + sx2];
+        int a0 = p0 >>> 24;
+        int a1 = p1 >>> 24;
+        int a2 = p2 >>> 24;
+        int a3 = p3 >>> 24;
+        int alpha = a0 + a1 + a2 + a3;
+        if (alpha == 0) {
+          continue;
+        }
+        int r = (((p0 >> 16) & 0xff) * a0 + ((p1 >> 16) & 0xff) * a1 + ((p2 >> 16) & 0xff) * a2 + ((p3 >> 16) & 0xff) * a3) / alpha;
+        int g = (((p0 >> 8) & 0xff) * a0 + ((p1 >> 8) & 0xff) * a1 + ((p2 >> 8) & 0xff) * a2 + ((p3 >> 8) & 0xff) * a3) / alpha;
+        int b = ((p0 & 0xff) * a0 + (p1 & 0xff) * a1 + (p2 & 0xff) * a2 + (p3 & 0xff) * a3) / alpha;
+        result[y * newWidth + x] = ((alpha / 4) << 24) | (r << 16) | (g << 8) | b;
+      }
+    }
+    return result;
+  }
+
+  /** Throws away all levels. They are recreated when needed. */
+  public void clear() {
+    for (int i = 0; i <= LEVELS; i++) {
+      if (images[i] != null) {
+        images[i].flush();
+        images[i] = null;
+      }
+    }
+  }
+
+  /** Returns true if no level was created. */
+  public boolean isEmpty() {
+    for (BufferedImage image : images) {
+      if (image != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the memory used by the pixel data of the levels. */
+  public long getByteSize() {
+    long size = 0;
+    for (int i = 1; i <= LEVELS; i++) {
+      if (images[i] != null) {
+        size += widths[i] * heights[i] * 4L;
+      }
+    }
+    return size;
+  }
+}
@@ -0,0 +1,117 @@
+package uk.co.petertribble.sphaero2.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Maps the ids of the pieces of a puzzle to the pieces.
+ * <p>
+ * The ids are dense ints, so the registry is a plain array indexed by id.
+ * All bins of a puzzle share one registry, which also hands out the ids
+ * of new pieces. {@link PieceSet}s store the ids of their pieces and use
+ * the registry to get the pieces back. The positions of registered pieces
+ * are kept in the {@link PieceTransforms} of the registry, with the id as
+ * slot.
+ * <p>
+ * Pieces which leave the puzzle (joined into a MultiPiece, removed from
+ * their bin, thrown away on reset) are unregistered, so the registry
+ * doesn't keep them alive. Their ids are handed out again.
+ */
+public class PieceRegistry {
+
+  private Piece[] pieces = new Piece[64];
+  private final PieceTransforms transforms = new PieceTransforms(64);
+  /** Id of the next new piece. Always greater than all registered ids. */
+  private int nextId;
+  /** Ids below nextId which are not used by a registered piece. */
+  private final BitSet freeIds = new BitSet();
+  /** Changes whenever a piece is unregistered, so sets can tell their ids may be stale. */
+  private int version;
+
+  /** Returns a new unused id. Ids of unregistered pieces are used again. */
+  public int nextId() {
+    int id = freeIds.nextSetBit(0);
+    if (id >= 0) {
+      freeIds.clear(id);
+      return id;
+    }
+    return nextId++;
+  }
+
+  /**
+   * Registers the piece and its sub pieces. When the id of the piece is
+   * already used by another piece (this can happen with puzzles saved
+   * by older versions), the piece gets a new id.
+   */
+  public void register(Piece piece) {
+    for (Piece sub : piece.getSubs()) {
+      if (sub != piece) {
+        registerPiece(sub);
+      }
+    }
+    registerPiece(piece);
+  }
+
+  private void registerPiece(Piece piece) {
+    int id = piece.getId();
+    if (id < 0 || (id < pieces.length && pieces[id] != null && pieces[id] != piece)) {
+      id = nextId();
+      piece.setId(id);
+    }
+    if (id >= pieces.length) {
+      pieces = Arrays.copyOf(pieces, Math.max(id + 1, pieces.length * 2));
+    }
+    pieces[id] = piece;
+    freeIds.clear(id);
+    piece.attachTransforms(transforms, id);
+    for (int i = nextId; i < id; i++) {
+      freeIds.set(i);
+    }
+    nextId = Math.max(nextId, id + 1);
+  }
+
+  /**
+   * Unregisters the piece and its sub pieces. Their slots are cleared and
+   * their ids can be given to new pieces. The pieces keep their position
+   * and can be registered again.
+   */
+  public void unregister(Piece piece) {
+    unregisterPiece(piece);
+    for (Piece sub : piece.getSubs()) {
+      if (sub != piece) {
+        unregisterPiece(sub);
+      }
+    }
+  }
+
+  private void unregisterPiece(Piece piece) {
+    int id = piece.getId();
+    if (get(id) != piece) {
+      return;
+    }
+    piece.detachTransforms();
+    pieces[id] = null;
+    freeIds.set(id);
+    version++;
+  }
+
+  /** Returns a number which changes whenever a piece is unregistered. */
+  public int getVersion() {
+    return version;
+  }
+
+  /** Returns the transforms of the registered pieces, indexed by id. */
+  public PieceTransforms getTransforms() {
+    return transforms;
+  }
+
+  /** Returns the piece with the given id, or null if there is none. */
+  public Piece get(int id) {
+    return id >= 0 && id < pieces.length ? pieces[id] : null;
+  }
+
+  /** Returns true if the piece is registered with its current id. */
+  public boolean isRegistered(Piece piece) {
+    return get(piece.getId()) == piece;
+  }
+}
@@ -3,45 +3,191 @@ package uk.co.petertribble.sphaero2.model;
 import com.berray.math.Vec2;
 
 import java.awt.*;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
 
 /**
  * A set of orderes pieces. This class enables some actions like move to be applied to the whole set of pieces.
+ * <p>
+ * The set stores the ids of the pieces: a bit set for membership and an int array for the insertion order.
+ * All pieces of the set must be registered in the {@link PieceRegistry}. Removing a piece only clears its bit;
+ * the array is compacted when it is used the next time.
+ * <p>
+ * Ids of unregistered pieces are given to new pieces, so the set also keeps the piece of each id. A piece which is
+ * unregistered while it is in the set is not a member anymore, and the new piece with its id is not a member either.
  */
 public class PieceSet implements Iterable<Piece> {
 
-  private Set<Piece> pieces = new LinkedHashSet<>();
+  private final PieceRegistry registry;
+  private final BitSet members = new BitSet();
+  /** The members by id, to tell them from later pieces with the same id. */
+  private Piece[] pieces = new Piece[16];
+  /** Version of the registry when the ids were last checked. */
+  private int registryVersion;
+  /** Ids of the pieces in insertion order. May contain removed ids until {@link #compact()} is called. */
+  private int[] ids = new int[16];
+  private int size;
+  /** Number of removed ids still in the array. */
+  private int removed;
+  /** Scratch rectangle for the draw bounds of a single piece. */
+  private final Rectangle pieceBounds = new Rectangle();
+
+  public PieceSet(PieceRegistry registry) {
+    this.registry = registry;
+    this.registryVersion = registry.getVersion();
+  }
+
+  public PieceRegistry getRegistry() {
+    return registry;
+  }
+
+  /** Returns true if the id is in the set and still belongs to the piece which was added. */
+  private boolean isLive(int id) {
+    return members.get(id) && registry.get(id) == pieces[id];
+  }
+
+  /** Drops the removed ids and the ids of unregistered pieces from the array. */
+  private void compact() {
+    int version = registry.getVersion();
+    if (removed == 0 && registryVersion == version) {
+      return;
+    }
+    int kept = 0;
+    for (int i = 0; i < size; i++) {
+      int id = ids[i];
+      if (isLive(id)) {
+        ids[kept++] = id;
+      } else if (members.get(id)) {
+        // the piece was unregistered
+        members.clear(id);
+        pieces[id] = null;
+      }
+    }
+    size = kept;
+    removed = 0;
+    registryVersion = version;
+  }
 
   @Override
   public Iterator<Piece> iterator() {
-    return pieces.iterator();
+    compact();
+    return new Iterator<>() {
+      private int index;
+
+      @Override
+      public boolean hasNext() {
+        // skip pieces removed or unregistered while iterating
+        while (index < size && !isLive(ids[index])) {
+          index++;
+        }
+        return index < size;
+      }
+
+      @Override
+      public Piece next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return pieces[ids[index++]];
+      }
+    };
+  }
+
+  /** Calls the action for each piece without creating an iterator. */
+  @Override
+  public void forEach(Consumer<? super Piece> action) {
+    compact();
+    for (int i = 0; i < size; i++) {
+      // the action may remove or unregister pieces
+      if (isLive(ids[i])) {
+        action.accept(pieces[ids[i]]);
+      }
+    }
+  }
+
+  /** Returns the piece at the given position in insertion order. */
+  public Piece get(int index) {
+    compact();
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+    return pieces[ids[index]];
+  }
+
+  public int size() {
+    if (registryVersion == registry.getVersion()) {
+      return size - removed;
+    }
+    // count without compacting, the set may be iterated
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      if (isLive(ids[i])) {
+        count++;
+      }
+    }
+    return count;
   }
 
   public boolean contains(Piece piece) {
-    return pieces.contains(piece);
+    int id = piece.getId();
+    return id >= 0 && id < pieces.length && pieces[id] == piece && isLive(id);
   }
 
 
   public void add(Piece piece) {
-    pieces.add(piece);
+    if (!registry.isRegistered(piece)) {
+      throw new IllegalArgumentException("piece " + piece.getId() + " is not registered");
+    }
+    addId(piece.getId(), piece);
+  }
+
+  private void addId(int id, Piece piece) {
+    if (contains(piece)) {
+      return;
+    }
+    // a removed or stale id may still be in the array
+    compact();
+    members.set(id);
+    if (id >= pieces.length) {
+      pieces = Arrays.copyOf(pieces, Math.max(id + 1, pieces.length * 2));
+    }
+    pieces[id] = piece;
+    if (size == ids.length) {
+      ids = Arrays.copyOf(ids, size * 2);
+    }
+    ids[size++] = id;
   }
 
   public void clear() {
-    pieces.clear();
+    for (int i = 0; i < size; i++) {
+      pieces[ids[i]] = null;
+    }
+    members.clear();
+    size = 0;
+    removed = 0;
+    registryVersion = registry.getVersion();
   }
 
   public void remove(Piece piece) {
-    pieces.remove(piece);
+    if (!contains(piece)) {
+      return;
+    }
+    members.clear(piece.getId());
+    pieces[piece.getId()] = null;
+    removed++;
   }
 
   public boolean isEmpty() {
-    return pieces.isEmpty();
+    return size() == 0;
   }
 
   public void moveBy(Vec2 delta) {
-    for (Piece piece : pieces) {
+    compact();
+    for (int i = 0; i < size; i++) {
+      Piece piece = pieces[ids[i]];
       int x = (int) (piece.getPuzzleX() + delta.getX());
       int y = (int) (piece.getPuzzleY() + delta.getY());
       piece.moveTo(x, y);
@@ -53,13 +199,12 @@ public class PieceSet implements Iterable<Piece> {
   }
 
   public void moveBy(int deltaX, int deltaY, boolean setCurrentPosition) {
-    for (Piece piece : pieces) {
-      int x = piece.getPuzzleX() + deltaX;
-      int y = piece.getPuzzleY() + deltaY;
-      piece.moveTo(x, y);
-      if (setCurrentPosition) {
-        piece.setCurrentPosition(x, y);
-      }
+    compact();
+    // move all pieces in the transform arrays, then tell the bins
+    registry.getTransforms().translate(ids, size, deltaX, deltaY, setCurrentPosition);
+    for (int i = 0; i < size; i++) {
+      Piece piece = pieces[ids[i]];
+      piece.moved(piece.getPuzzleX() - deltaX, piece.getPuzzleY() - deltaY);
     }
   }
 
@@ -69,10 +214,11 @@ public class PieceSet implements Iterable<Piece> {
    * and when the whole set is @{link {@link #moveBy(Vec2)} (Vec2)} moved}, the anchor is moved by the same amount.
    */
   public Vec2 getAnchor() {
-    if (pieces.isEmpty()) {
+    compact();
+    if (size == 0) {
       return Vec2.origin();
     }
-    Piece anchorPiece = pieces.iterator().next();
+    Piece anchorPiece = pieces[ids[0]];
     return new Vec2(anchorPiece.getPuzzleX(), anchorPiece.getPuzzleY());
   }
 
@@ -81,68 +227,103 @@ public class PieceSet implements Iterable<Piece> {
    * and when the whole set is @{link {@link #moveBy(Vec2)} (Vec2)} moved}, the anchor is moved by the same amount.
    */
   public Point getAnchorPoint() {
-    if (pieces.isEmpty()) {
-      return new Point();
+    long anchor = getAnchorPacked();
+    return new Point(GeomUtil.x(anchor), GeomUtil.y(anchor));
+  }
+
+  /**
+   * Returns the {@link #getAnchorPoint() anchor} packed with {@link GeomUtil#pack(int, int)}.
+   */
+  public long getAnchorPacked() {
+    compact();
+    if (size == 0) {
+      return GeomUtil.pack(0, 0);
     }
-    Piece anchorPiece = pieces.iterator().next();
-    return new Point(anchorPiece.getPuzzleX(), anchorPiece.getPuzzleY());
+    Piece anchorPiece = pieces[ids[0]];
+    return GeomUtil.pack(anchorPiece.getPuzzleX(), anchorPiece.getPuzzleY());
   }
 
 
+  /** Returns the average position of the pieces, or the origin if the set is empty. */
   public Vec2 getCenter() {
-    float x = 0;
-    float y = 0;
-    for (Piece piece : pieces) {
-      x += piece.getPuzzleX();
-      y += piece.getPuzzleY();
+    compact();
+    if (size == 0) {
+      return Vec2.origin();
     }
-    return new Vec2(x / pieces.size(), y / pieces.size());
+    PieceTransforms transforms = registry.getTransforms();
+    return new Vec2((float) transforms.sumX(ids, size) / size, (float) transforms.sumY(ids, size) / size);
   }
 
+  /** Returns the average position of the pieces, or the origin if the set is empty. */
   public Point getCenterPoint() {
-    int x = 0;
-    int y = 0;
-    for (Piece piece : pieces) {
-      x += piece.getPuzzleX();
-      y += piece.getPuzzleY();
+    compact();
+    if (size == 0) {
+      return new Point();
     }
-    return new Point(x / pieces.size(), y / pieces.size());
+    PieceTransforms transforms = registry.getTransforms();
+    return new Point((int) (transforms.sumX(ids, size) / size), (int) (transforms.sumY(ids, size) / size));
   }
 
   public Rectangle getBounds() {
-    if (pieces.isEmpty()) {
-      return new Rectangle();
-    }
-    Rectangle bounds = pieces.iterator().next().getBounds();
-    for (Piece piece : pieces) {
-      bounds = bounds.union(piece.getBounds());
+    return getBounds(new Rectangle());
+  }
+
+  /** Stores the union of the bounds of all pieces in <code>out</code> and returns it. */
+  public Rectangle getBounds(Rectangle out) {
+    compact();
+    registry.getTransforms().bounds(ids, size, out);
+    return out;
+  }
+
+  /**
+   * Stores the union of the {@link Piece#getDrawBounds() draw bounds} of all pieces in <code>out</code> and
+   * returns it. The rectangle is {@link GeomUtil#clear(Rectangle) cleared} when the set is empty.
+   */
+  public Rectangle getDrawBounds(Rectangle out) {
+    compact();
+    GeomUtil.clear(out);
+    for (int i = 0; i < size; i++) {
+      GeomUtil.union(out, pieces[ids[i]].getDrawBounds(pieceBounds));
     }
-    return bounds;
+    return out;
   }
 
 
   public void stack(Vec2 center) {
-    for (Piece piece : pieces) {
+    compact();
+    for (int i = 0; i < size; i++) {
+      Piece piece = pieces[ids[i]];
       piece.moveTo((int) center.getX(), (int) center.getY());
     }
   }
 
   public void stack(Point center) {
-    for (Piece piece : pieces) {
+    compact();
+    for (int i = 0; i < size; i++) {
+      Piece piece = pieces[ids[i]];
       piece.moveTo(center.x - piece.getCurrentWidth() / 2, center.y - piece.getCurrentHeight() / 2);
     }
   }
 
 
   public void addAll(Iterable<Piece> others) {
-    others.forEach(pieces::add);
+    if (others instanceof PieceSet && ((PieceSet) others).registry == registry) {
+      // union of the ids, no lookup needed
+      PieceSet other = (PieceSet) others;
+      other.compact();
+      for (int i = 0; i < other.size; i++) {
+        addId(other.ids[i], other.pieces[other.ids[i]]);
+      }
+    } else {
+      others.forEach(this::add);
+    }
   }
 
   public void toggle(Piece piece) {
-    if (pieces.contains(piece)) {
-      pieces.remove(piece);
+    if (contains(piece)) {
+      remove(piece);
     } else {
-      pieces.add(piece);
+      add(piece);
     }
   }
 }
@@ -0,0 +1,132 @@
+package uk.co.petertribble.sphaero2.model;
+
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * Positions, rotations and sizes of pieces, stored in parallel arrays.
+ * <p>
+ * Each piece owns a slot in a store. The store of the {@link PieceRegistry}
+ * uses the piece id as slot, so operations on many pieces (moving a
+ * selection, computing bounds) run over plain int arrays instead of visiting
+ * every piece object. A piece which is not registered yet has a private
+ * store with a single slot.
+ */
+public class PieceTransforms {
+
+  /** Position in the puzzle. */
+  int[] puzzleX;
+  int[] puzzleY;
+  /** Drawn position. Differs from the puzzle position while the piece is animated. */
+  int[] currentX;
+  int[] currentY;
+  /** Rotation in degrees (0, 90, 180, 270). */
+  int[] rotation;
+  /** Size in the current rotation. */
+  int[] width;
+  int[] height;
+
+  public PieceTransforms(int capacity) {
+    puzzleX = new int[capacity];
+    puzzleY = new int[capacity];
+    currentX = new int[capacity];
+    currentY = new int[capacity];
+    rotation = new int[capacity];
+    width = new int[capacity];
+    height = new int[capacity];
+  }
+
+  public int getCapacity() {
+    return puzzleX.length;
+  }
+
+  /** Grows the arrays so the slot can be used. */
+  public void ensureCapacity(int slot) {
+    if (slot < puzzleX.length) {
+      return;
+    }
+    int capacity = Math.max(slot + 1, puzzleX.length * 2);
+    puzzleX = Arrays.copyOf(puzzleX, capacity);
+    puzzleY = Arrays.copyOf(puzzleY, capacity);
+    currentX = Arrays.copyOf(currentX, capacity);
+    currentY = Arrays.copyOf(currentY, capacity);
+    rotation = Arrays.copyOf(rotation, capacity);
+    width = Arrays.copyOf(width, capacity);
+    height = Arrays.copyOf(height, capacity);
+  }
+
+  /** Copies one slot of the other store into a slot of this store. */
+  void copyFrom(PieceTransforms other, int otherSlot, int slot) {
+    ensureCapacity(slot);
+    puzzleX[slot] = other.puzzleX[otherSlot];
+    puzzleY[slot] = other.puzzleY[otherSlot];
+    currentX[slot] = other.currentX[otherSlot];
+    currentY[slot] = other.currentY[otherSlot];
+    rotation[slot] = other.rotation[otherSlot];
+    width[slot] = other.width[otherSlot];
+    height[slot] = other.height[otherSlot];
+  }
+
+  /**
+   * Moves the puzzle position of the given slots. The bins of the pieces are
+   * not informed, this is the job of the caller.
+   *
+   * @param slots              slots to move
+   * @param count              number of slots used in the array
+   * @param setCurrentPosition true to move the drawn position to the new position
+   */
+  void translate(int[] slots, int count, int deltaX, int deltaY, boolean setCurrentPosition) {
+    for (int i = 0; i < count; i++) {
+      int slot = slots[i];
+      int x = puzzleX[slot] + deltaX;
+      int y = puzzleY[slot] + deltaY;
+      puzzleX[slot] = x;
+      puzzleY[slot] = y;
+      if (setCurrentPosition) {
+        currentX[slot] = x;
+        currentY[slot] = y;
+      }
+    }
+  }
+
+  /**
+   * Stores the union of the bounds of the given slots in <code>out</code>.
+   * The bounds are empty when there are no slots.
+   */
+  public void bounds(int[] slots, int count, Rectangle out) {
+    if (count == 0) {
+      out.setBounds(0, 0, 0, 0);
+      return;
+    }
+    int minX = Integer.MAX_VALUE;
+    int minY = Integer.MAX_VALUE;
+    int maxX = Integer.MIN_VALUE;
+    int maxY = Integer.MIN_VALUE;
+    for (int i = 0; i < count; i++) {
+      int slot = slots[i];
+      minX = Math.min(minX, puzzleX[slot]);
+      minY = Math.min(minY, puzzleY[slot]);
+      maxX = Math.max(maxX, puzzleX[slot] + width[slot]);
+      maxY = Math.max(maxY, puzzleY[slot] + height[slot]);
+    }
+    out.setBounds(minX, minY, maxX - minX, maxY - minY);
+  }
+
+  /** Returns the sum of the puzzle x positions of the given slots. */
+  long sumX(int[] slots, int count) {
+    long sum = 0;
+    for (int i = 0; i < count; i++) {
+      sum += puzzleX[slots[i]];
+    }
+    return sum;
+  }
+
+  /** Returns the sum of the puzzle y positions of the given slots. */
+  long sumY(int[] slots, int count) {
+    long sum = 0;
+    for (int i = 0; i < count; i++) {
+      sum += puzzleY[slots[i]];
+    }
+    return sum;
+  }
+}
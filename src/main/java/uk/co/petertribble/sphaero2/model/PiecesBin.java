@@ -5,115 +5,381 @@ import com.berray.math.Rect;
 import java.awt.*;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 public class PiecesBin {
+  /** Cell size of the spatial index when the bin is empty. */
+  private static final int DEFAULT_CELL_SIZE = 128;
+  /** How far the highlight (outline and shadow) of a piece reaches out of its bounds. */
+  private static final int DRAW_MARGIN = 16;
+  private static final Comparator<Piece> Z_ORDER = Comparator.comparingLong(piece -> piece.zKey);
+
   /**
-   * Provider which supplies unique ids
+   * Registry of all pieces of the puzzle. Supplies unique ids.
    */
-  private AtomicInteger idProvider;
+  private final PieceRegistry registry;
 
   /**
    * Name of this bin
    */
   private final String name;
   /**
-   * List of pieces in this bin
+   * Pieces in this bin by z-order key. Last entry = topmost piece.
+   */
+  private final TreeMap<Long, Piece> pieces = new TreeMap<>();
+  /**
+   * Key of the topmost and the bottommost piece.
+   */
+  private long topKey;
+  private long bottomKey;
+  /**
+   * Read-only view of the pieces in z-order.
    */
-  private List<Piece> pieces;
+  private final Collection<Piece> pieceView = Collections.unmodifiableCollection(pieces.values());
   /**
    * Selected pieces, if any
    */
-  private PieceSet selected = new PieceSet();
+  private final PieceSet selected;
+  /** Pieces already found by {@link #getPiecesToDraw}. */
+  private final PieceSet found;
+  /** Drawn bounds of a displaced piece, reused by {@link #getPiecesToDraw}. */
+  private final Rectangle drawBounds = new Rectangle();
+  /**
+   * Pieces which were added, drawn or touched since they were last compressed,
+   * in the order they were queued. Pieces are queued from the painting threads
+   * too, so the queue is its own lock.
+   */
+  private final ArrayDeque<Piece> idleQueue = new ArrayDeque<>();
+  /** Pieces found in the index, reused by the queries which only return some of them. */
+  private final List<Piece> candidates = new ArrayList<>();
+  /**
+   * Spatial index of the pieces.
+   */
+  private PieceGrid grid = new PieceGrid(DEFAULT_CELL_SIZE);
+  /**
+   * Bounds of all pieces. Extended when pieces are added or moved outwards,
+   * recomputed lazily when a piece on the border moves inwards or is removed.
+   */
+  private int minX;
+  private int minY;
+  private int maxX;
+  private int maxY;
+  private boolean boundsValid;
 
+  /**
+   * Creates a copy of the bin with the same pieces, z-order, selection and
+   * index. The pieces still belong to the other bin, so later moves update
+   * the other bin and not the copy.
+   */
   public PiecesBin(PiecesBin piecesBin) {
-    this(piecesBin.idProvider, piecesBin.name, piecesBin.pieces);
+    this.name = piecesBin.name;
+    this.registry = piecesBin.registry;
+    this.selected = new PieceSet(registry);
+    this.found = new PieceSet(registry);
+    selected.addAll(piecesBin.selected);
+    pieces.putAll(piecesBin.pieces);
+    topKey = piecesBin.topKey;
+    bottomKey = piecesBin.bottomKey;
+    grid = new PieceGrid(piecesBin.grid.getCellSize());
+    for (Piece piece : pieces.values()) {
+      grid.add(piece);
+    }
   }
 
-  public PiecesBin(AtomicInteger idProvider, String name) {
-    this(idProvider, name, new ArrayList<>());
+  public PiecesBin(PieceRegistry registry, String name) {
+    this(registry, name, new ArrayList<>());
   }
 
-  public PiecesBin(AtomicInteger idProvider, String name, List<Piece> pieces) {
+  public PiecesBin(PieceRegistry registry, String name, List<Piece> pieces) {
     this.name = name;
-    this.idProvider = idProvider;
+    this.registry = registry;
+    this.selected = new PieceSet(registry);
+    this.found = new PieceSet(registry);
     this.setPieces(pieces);
   }
 
-  public List<Piece> getPieces() {
-    return pieces;
+  /**
+   * Returns the pieces of this bin in z-order, topmost piece last. This is a
+   * view which follows later changes, so it must not be iterated while pieces
+   * are added, removed or moved in the z-order. It can't be modified, use
+   * {@link #add(Piece)} and {@link #remove(Piece)}.
+   */
+  public Collection<Piece> getPieces() {
+    return pieceView;
+  }
+
+  /** Returns the piece below all other pieces, or null if the bin is empty. */
+  public Piece getBottomPiece() {
+    return pieces.isEmpty() ? null : pieces.firstEntry().getValue();
+  }
+
+  /** Returns the number of pieces in this bin. */
+  public int size() {
+    return pieces.size();
+  }
+
+  /** Adds a piece on top of the other pieces. */
+  public void add(Piece piece) {
+    registry.register(piece);
+    piece.setBin(this);
+    putOnTop(piece);
+    grid.add(piece);
+    if (boundsValid) {
+      includeBounds(piece);
+    }
+    // new pieces have their original data, compress it when they stay idle
+    queueIdle(piece);
+  }
+
+  /** Removes a piece from this bin and unregisters it. */
+  public void remove(Piece piece) {
+    if (piece.getBin() == this && pieces.remove(piece.zKey) != null) {
+      piece.setBin(null);
+      grid.remove(piece);
+      selected.remove(piece);
+      registry.unregister(piece);
+      if (boundsValid && touchesBounds(piece.getPuzzleX(), piece.getPuzzleY(),
+          piece.getCurrentWidth(), piece.getCurrentHeight())) {
+        boundsValid = false;
+      }
+    }
+  }
+
+  private void putOnTop(Piece piece) {
+    piece.zKey = ++topKey;
+    pieces.put(piece.zKey, piece);
+  }
+
+  private void putAtBottom(Piece piece) {
+    piece.zKey = --bottomKey;
+    pieces.put(piece.zKey, piece);
+  }
+
+  /**
+   * Called by the pieces of this bin when their position or size changed.
+   * The old bounds of the piece are passed in.
+   */
+  void pieceChanged(Piece piece, int oldX, int oldY, int oldWidth, int oldHeight) {
+    grid.update(piece);
+    if (!boundsValid) {
+      return;
+    }
+    int x = piece.getPuzzleX();
+    int y = piece.getPuzzleY();
+    int right = x + piece.getCurrentWidth();
+    int bottom = y + piece.getCurrentHeight();
+    // the piece was on the border and moved inwards: some other piece might be the new border
+    if ((oldX == minX && x > minX)
+        || (oldY == minY && y > minY)
+        || (oldX + oldWidth == maxX && right < maxX)
+        || (oldY + oldHeight == maxY && bottom < maxY)) {
+      boundsValid = false;
+    } else {
+      includeBounds(piece);
+    }
+  }
+
+  private void includeBounds(Piece piece) {
+    minX = Math.min(minX, piece.getPuzzleX());
+    minY = Math.min(minY, piece.getPuzzleY());
+    maxX = Math.max(maxX, piece.getPuzzleX() + piece.getCurrentWidth());
+    maxY = Math.max(maxY, piece.getPuzzleY() + piece.getCurrentHeight());
+  }
+
+  private boolean touchesBounds(int x, int y, int width, int height) {
+    return x == minX || y == minY || x + width == maxX || y + height == maxY;
+  }
+
+  /** Recomputes the bounds if needed. Returns false if there are no pieces. */
+  private boolean validateBounds() {
+    if (pieces.isEmpty()) {
+      return false;
+    }
+    if (!boundsValid) {
+      minX = Integer.MAX_VALUE;
+      minY = Integer.MAX_VALUE;
+      maxX = Integer.MIN_VALUE;
+      maxY = Integer.MIN_VALUE;
+      for (Piece piece : pieces.values()) {
+        includeBounds(piece);
+      }
+      boundsValid = true;
+    }
+    return true;
   }
 
   public PieceSet getSelected() {
     return selected;
   }
 
+  /**
+   * Returns the pieces which have at least one corner in the rectangle.
+   */
   public PieceSet getPiecesInRect(Rect localRect) {
-    PieceSet piecesInRect = new PieceSet();
+    return getPiecesInRect(localRect, new PieceSet(registry));
+  }
 
-    for (Piece piece : pieces) {
+  /**
+   * Adds the pieces which have at least one corner in the rectangle to the
+   * given set.
+   *
+   * @return the result set
+   */
+  public PieceSet getPiecesInRect(Rect localRect, PieceSet result) {
+    candidates.clear();
+    float rectX = Math.min(localRect.getX(), localRect.getX() + localRect.getWidth());
+    float rectY = Math.min(localRect.getY(), localRect.getY() + localRect.getHeight());
+    // the corners are part of the pieces, so search with a margin of one pixel
+    grid.findIn((int) Math.floor(rectX) - 1, (int) Math.floor(rectY) - 1,
+        (int) Math.ceil(Math.abs(localRect.getWidth())) + 3, (int) Math.ceil(Math.abs(localRect.getHeight())) + 3,
+        candidates);
+
+    for (Piece piece : sortByZOrder(candidates)) {
       if (localRect.contains(piece.getPuzzleX(), piece.getPuzzleY()) ||
           localRect.contains(piece.getPuzzleX() + piece.getCurrentWidth(), piece.getPuzzleY()) ||
           localRect.contains(piece.getPuzzleX(), piece.getPuzzleY() + piece.getCurrentHeight()) ||
           localRect.contains(piece.getPuzzleX() + piece.getCurrentWidth(), piece.getPuzzleY() + piece.getCurrentHeight())
       ) {
-        piecesInRect.add(piece);
+        result.add(piece);
       }
     }
-    return piecesInRect;
+    candidates.clear();
+    return result;
   }
 
+  /**
+   * Returns the pieces which are completely inside the rectangle.
+   */
   public PieceSet getPiecesInRect(Rectangle localRect) {
-    PieceSet piecesInRect = new PieceSet();
+    return getPiecesInRect(localRect, new PieceSet(registry));
+  }
 
-    for (Piece piece : pieces) {
+  /**
+   * Adds the pieces which are completely inside the rectangle to the given set.
+   *
+   * @return the result set
+   */
+  public PieceSet getPiecesInRect(Rectangle localRect, PieceSet result) {
+    candidates.clear();
+    grid.findIn(localRect.x, localRect.y, localRect.width, localRect.height, candidates);
+
+    for (Piece piece : sortByZOrder(candidates)) {
       if (localRect.contains(piece.getPuzzleX(), piece.getPuzzleY()) &&
               localRect.contains(piece.getPuzzleX() + piece.getCurrentWidth(), piece.getPuzzleY()) &&
               localRect.contains(piece.getPuzzleX(), piece.getPuzzleY() + piece.getCurrentHeight()) &&
               localRect.contains(piece.getPuzzleX() + piece.getCurrentWidth(), piece.getPuzzleY() + piece.getCurrentHeight())
       ) {
-        piecesInRect.add(piece);
+        result.add(piece);
       }
     }
-    return piecesInRect;
+    candidates.clear();
+    return result;
+  }
+
+  /**
+   * Returns the pieces whose bounds intersect the rectangle, in z-order
+   * (topmost piece last).
+   */
+  public List<Piece> getPiecesIntersecting(Rectangle rectangle) {
+    return getPiecesIntersecting(rectangle, new ArrayList<>());
   }
 
+  /**
+   * Adds the pieces whose bounds intersect the rectangle to the list and
+   * sorts it in z-order (topmost piece last).
+   *
+   * @return the result list
+   */
+  public List<Piece> getPiecesIntersecting(Rectangle rectangle, List<Piece> result) {
+    grid.findIn(rectangle.x, rectangle.y, rectangle.width, rectangle.height, result);
+    return sortByZOrder(result);
+  }
 
+  /**
+   * Returns the pieces which have to be drawn to paint the area, in z-order
+   * (topmost piece last). The pieces are found by their puzzle position.
+   * Pieces which are currently drawn somewhere else (while they are animated)
+   * must be passed in as <code>displaced</code>.
+   *
+   * @param area      area to paint, in puzzle coordinates
+   * @param displaced pieces whose drawn position might differ from the puzzle position
+   * @param result    list to add the pieces to
+   * @return the result list
+   */
+  public List<Piece> getPiecesToDraw(Rectangle area, Collection<Piece> displaced, List<Piece> result) {
+    grid.findIn(area.x - DRAW_MARGIN, area.y - DRAW_MARGIN,
+        area.width + 2 * DRAW_MARGIN, area.height + 2 * DRAW_MARGIN, result);
+    if (!displaced.isEmpty()) {
+      found.clear();
+      result.forEach(found::add);
+      for (Piece piece : displaced) {
+        if (piece.getBin() == this && !found.contains(piece)
+            && area.intersects(piece.getDrawBounds(drawBounds))) {
+          found.add(piece);
+          result.add(piece);
+        }
+      }
+    }
+    return sortByZOrder(result);
+  }
 
   public String getName() {
     return name;
   }
 
   public Supplier<Integer> getIdProvider() {
-    return idProvider::getAndIncrement;
+    return registry::nextId;
+  }
+
+  public PieceRegistry getRegistry() {
+    return registry;
   }
 
   public void setPieces(List<Piece> pieces) {
-    // create a copy of the pieces list so we can be sure that the list is modifiable
-    this.pieces = new ArrayList<>(Objects.requireNonNull(pieces));
-    // find last piece id and set idProvider to the next id
-    int maxId = pieces.stream().mapToInt(Piece::getId).max().orElse(0);
-    idProvider.set(maxId);
+    Objects.requireNonNull(pieces);
+    // the old pieces are thrown away, unless they are passed in again
+    for (Piece piece : this.pieces.values()) {
+      piece.setBin(null);
+      registry.unregister(piece);
+    }
+    this.pieces.clear();
+    selected.clear();
+    synchronized (idleQueue) {
+      for (Piece piece : idleQueue) {
+        piece.queued = false;
+      }
+      idleQueue.clear();
+    }
+    topKey = 0;
+    bottomKey = 0;
+    boundsValid = false;
+
+    // cells about the size of a piece: most pieces are in 1-4 cells
+    int averageSize = (int) pieces.stream()
+        .mapToInt(piece -> Math.max(piece.getCurrentWidth(), piece.getCurrentHeight()))
+        .average().orElse(DEFAULT_CELL_SIZE);
+    grid = new PieceGrid(averageSize);
+    for (Piece piece : pieces) {
+      add(piece);
+    }
   }
 
   /** moves all pieces out of the specified rectangle. */
   public void clear(Rectangle rectangleToKeepFree) {
-    for (Piece piece : this.pieces) {
+    // Get center of the free area
+    int freeCenterX = rectangleToKeepFree.x + rectangleToKeepFree.width / 2;
+    int freeCenterY = rectangleToKeepFree.y + rectangleToKeepFree.height / 2;
+    Rectangle pieceBounds = new Rectangle();
+    for (Piece piece : getPiecesIntersecting(rectangleToKeepFree)) {
 
-      Rectangle pieceBounds = piece.getBounds();
+      piece.getBounds(pieceBounds);
       if (rectangleToKeepFree.intersects(pieceBounds)) {
-        // Get centers
-        Point freeCenter = new Point(
-                rectangleToKeepFree.x + rectangleToKeepFree.width / 2,
-                rectangleToKeepFree.y + rectangleToKeepFree.height / 2);
-        Point pieceCenter = new Point(
-                pieceBounds.x + pieceBounds.width / 2,
-                pieceBounds.y + pieceBounds.height / 2);
+        int pieceCenterX = pieceBounds.x + pieceBounds.width / 2;
+        int pieceCenterY = pieceBounds.y + pieceBounds.height / 2;
 
         // Calculate direction vector from free area to piece
-        int dx = pieceCenter.x - freeCenter.x;
-        int dy = pieceCenter.y - freeCenter.y;
+        int dx = pieceCenterX - freeCenterX;
+        int dy = pieceCenterY - freeCenterY;
 
         // Calculate intersection with rectangleToKeepFree boundaries
 
@@ -135,12 +401,12 @@ public class PiecesBin {
 
         // Calculate new position (adding small epsilon to ensure no intersection)
         double epsilon = 0.1;
-        double newX = pieceCenter.getX() + dx * (t + epsilon);
-        double newY = pieceCenter.getY() + dy * (t + epsilon);
+        double newX = pieceCenterX + dx * (t + epsilon);
+        double newY = pieceCenterY + dy * (t + epsilon);
 
         // Move piece by the difference between new and current center
-        int deltaX = (int)(newX - pieceCenter.getX());
-        int deltaY = (int)(newY - pieceCenter.getY());
+        int deltaX = (int)(newX - pieceCenterX);
+        int deltaY = (int)(newY - pieceCenterY);
 
         piece.setPuzzlePosition(pieceBounds.x + deltaX, pieceBounds.y + deltaY);
       }
@@ -198,9 +464,8 @@ public class PiecesBin {
 
   public void shuffle(Rect destination, boolean randomizeRotation) {
     List<Piece> piecesToShuffle = new ArrayList<>();
-    List<Piece> remainingPieces = new ArrayList<>();
     Random random = new Random();
-    for (Piece piece : this.pieces) {
+    for (Piece piece : this.pieces.values()) {
       if (destination.contains(piece.getPuzzleX(), piece.getPuzzleY())) {
         int x = (int) (destination.getX() + random.nextFloat() * (destination.getWidth() - piece.getCurrentWidth()));
         int y = (int) (destination.getY() + random.nextFloat() * (destination.getHeight() - piece.getCurrentHeight()));
@@ -209,13 +474,13 @@ public class PiecesBin {
           piece.setRotation(random.nextInt(3) * 90);
         }
         piecesToShuffle.add(piece);
-      } else {
-        remainingPieces.add(piece);
       }
     }
+    // the shuffled pieces are put on top in random order
     Collections.shuffle(piecesToShuffle);
-    remainingPieces.addAll(piecesToShuffle);
-    this.pieces = remainingPieces;
+    for (Piece piece : piecesToShuffle) {
+      moveToTop(piece);
+    }
   }
 
   /**
@@ -225,8 +490,8 @@ public class PiecesBin {
    */
   public Piece push() {
     if (pieces.size() > 1) {
-      Piece p = pieces.remove(pieces.size() - 1);
-      pieces.add(0, p);
+      Piece p = pieces.lastEntry().getValue();
+      moveToBottom(p);
       return p;
     }
     return null;
@@ -241,53 +506,163 @@ public class PiecesBin {
     if (result != null) {
       Piece newPiece = result[0];
       for (int i = 1; i < result.length; i++) {
-        pieces.remove(result[i]);
+        remove(result[i]);
       }
-      pieces.add(newPiece);
+      add(newPiece);
       return newPiece;
     }
     return null;
   }
 
+  /** Returns the right edge of the rightmost piece, or 0 if there are no pieces. */
   public int getWidth() {
-    return pieces.stream().mapToInt(p -> p.getPuzzleX() + p.getCurrentWidth()).max().orElse(100);
+    return validateBounds() ? maxX : 0;
   }
 
+  /** Returns the bottom edge of the lowest piece, or 0 if there are no pieces. */
   public int getHeight() {
-    return pieces.stream().mapToInt(p -> p.getPuzzleY() + p.getCurrentHeight()).max().orElse(100);
+    return validateBounds() ? maxY : 0;
   }
 
+  /** Returns the bounds of all pieces, or an empty rectangle at the origin if there are no pieces. */
   public Rect getRect() {
-    int minX = Integer.MAX_VALUE;
-    int minY = Integer.MAX_VALUE;
-    int maxX = Integer.MIN_VALUE;
-    int maxY = Integer.MIN_VALUE;
-
-    for (Piece piece : pieces) {
-      minX = Math.min(minX, piece.getPuzzleX());
-      minY = Math.min(minY, piece.getPuzzleY());
-      maxX = Math.max(maxX, piece.getPuzzleX() + piece.getCurrentWidth());
-      maxY = Math.max(maxY, piece.getPuzzleY() + piece.getCurrentHeight());
+    if (!validateBounds()) {
+      return new Rect(0, 0, 0, 0);
     }
-
     return new Rect(minX, minY, maxX - minX, maxY - minY);
   }
 
+  /**
+   * Returns the topmost piece at the given position, or null if there is none.
+   */
   public Piece getPieceAt(int x, int y) {
-    ListIterator<Piece> iter = pieces.listIterator(pieces.size());
-    while (iter.hasPrevious()) {
-      Piece piece = iter.previous();
-      if (piece.contains(x, y)) {
-        return piece;
+    candidates.clear();
+    grid.findAt(x, y, candidates);
+    Piece topmost = null;
+    for (Piece piece : candidates) {
+      if (piece.contains(x, y) && (topmost == null || piece.zKey > topmost.zKey)) {
+        topmost = piece;
       }
     }
-    return null;
+    candidates.clear();
+    return topmost;
   }
 
+  /**
+   * Compresses pieces which were not used for the given time. Stops when the
+   * time budget is used up, so this can be called from the event dispatch
+   * thread without noticeable stutter.
+   * <p>
+   * Only the pieces in the idle queue are looked at: pieces are queued when
+   * they are added, drawn or touched, and leave the queue when they are
+   * compressed. Pieces which were used again are moved to the back, so each
+   * call looks at every queued piece at most once.
+   *
+   * @param idleNanos   minimum time since the piece was used
+   * @param budgetNanos maximum time to spend compressing
+   * @return the number of compressed pieces
+   */
+  public int compressIdlePieces(long idleNanos, long budgetNanos) {
+    long start = System.nanoTime();
+    int compressed = 0;
+    int remaining;
+    synchronized (idleQueue) {
+      remaining = idleQueue.size();
+    }
+    for (; remaining > 0; remaining--) {
+      Piece piece;
+      synchronized (idleQueue) {
+        piece = idleQueue.poll();
+        if (piece == null) {
+          break;
+        }
+        if (piece.getBin() != this) {
+          piece.queued = false;
+        }
+      }
+      if (piece.getBin() != this) {
+        // removed since it was queued, maybe into another bin
+        if (piece.getBin() != null) {
+          piece.getBin().queueIdle(piece);
+        }
+        continue;
+      }
+      // compressed pieces lose their render data, so pieces on screen are not idle
+      if (start - piece.getLastDrawn() <= idleNanos || start - piece.getLastTouched() <= idleNanos) {
+        requeue(piece);
+        continue;
+      }
+      boolean idle = true;
+      for (Piece sub : piece.getSubs()) {
+        if (start - sub.getLastTouched() <= idleNanos) {
+          idle = false;
+        } else if (sub.compress()) {
+          compressed++;
+        }
+      }
+      if (!idle) {
+        requeue(piece);
+      } else {
+        // the composite image of a MultiPiece is not one of its subs
+        piece.releaseRenderData();
+        synchronized (idleQueue) {
+          piece.queued = false;
+        }
+        // drawn again while it was compressed
+        if (piece.getLastDrawn() >= start || piece.getLastTouched() >= start) {
+          queueIdle(piece);
+        }
+      }
+      if (System.nanoTime() - start > budgetNanos) {
+        break;
+      }
+    }
+    return compressed;
+  }
+
+  /** Queues a piece for {@link #compressIdlePieces(long, long)}, unless it is queued already. */
+  void queueIdle(Piece piece) {
+    synchronized (idleQueue) {
+      if (!piece.queued) {
+        piece.queued = true;
+        idleQueue.add(piece);
+      }
+    }
+  }
+
+  /** Moves a piece which is still in use to the back of the idle queue. */
+  private void requeue(Piece piece) {
+    synchronized (idleQueue) {
+      idleQueue.add(piece);
+    }
+  }
+
+  /** Adds the memory used by the pieces to the breakdown. */
+  public void accountMemory(MemoryBreakdown breakdown) {
+    for (Piece piece : pieces.values()) {
+      piece.accountMemory(breakdown);
+    }
+  }
+
+  /** Moves the piece on top of all other pieces. */
   public void moveToTop(Piece piece) {
-    boolean containedPiece = pieces.remove(piece);
-    if (containedPiece) {
-      pieces.add(piece);
+    if (piece.getBin() == this && piece.zKey != topKey) {
+      pieces.remove(piece.zKey);
+      putOnTop(piece);
     }
   }
+
+  /** Moves the piece below all other pieces. */
+  public void moveToBottom(Piece piece) {
+    if (piece.getBin() == this && piece.zKey != bottomKey) {
+      pieces.remove(piece.zKey);
+      putAtBottom(piece);
+    }
+  }
+
+  /** Sorts pieces of this bin by z-order, topmost piece last. */
+  private List<Piece> sortByZOrder(List<Piece> list) {
+    list.sort(Z_ORDER);
+    return list;
+  }
 }
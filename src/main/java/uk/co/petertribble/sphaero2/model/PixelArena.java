@@ -0,0 +1,150 @@
+package uk.co.petertribble.sphaero2.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Slab storage for the original pixel data of pieces.
+ * <p>
+ * Instead of keeping one <code>int[]</code> per piece, the pixels are copied
+ * into a few large slabs. Each stored block is addressed by a handle, which
+ * encodes the slab index and the offset in the slab. The garbage collector
+ * only has to track the slabs, regardless of the number of pieces. The arena
+ * is released as a whole when the jigsaw is discarded.
+ * <p>
+ * Only the original data is kept here. The current data of a piece stays on
+ * the heap: it is recreated whenever the piece is rotated or its render data
+ * is released, which an append-only slab cannot reclaim, and the image drawn
+ * from it needs its own <code>int[]</code>.
+ * <p>
+ * The slabs are either direct (off-heap) buffers or plain heap buffers.
+ * Which one is used by the game is selected with the system property
+ * <code>sphaero2.pixelArena</code> (<code>direct</code> or <code>heap</code>).
+ * When the property is not set, no arena is used.
+ */
+public class PixelArena {
+
+  /** Name of the system property which enables the arena. */
+  public static final String PROPERTY = "sphaero2.pixelArena";
+
+  /** Size of a slab in ints (16MB per slab). */
+  private static final int SLAB_SIZE = 4 * 1024 * 1024;
+
+  private final boolean direct;
+  private final List<IntBuffer> slabs = new ArrayList<>();
+  /** Next free position in the last slab. */
+  private int slabPosition;
+  /** Number of bytes currently stored in the arena. */
+  private long usedBytes;
+  private boolean released;
+
+  public PixelArena(boolean direct) {
+    this.direct = direct;
+  }
+
+  /**
+   * Returns a new arena as configured by the system property, or null if the
+   * arena is not enabled.
+   */
+  public static PixelArena fromSystemProperty() {
+    String mode = System.getProperty(PROPERTY);
+    if ("direct".equalsIgnoreCase(mode)) {
+      return new PixelArena(true);
+    }
+    if ("heap".equalsIgnoreCase(mode)) {
+      return new PixelArena(false);
+    }
+    return null;
+  }
+
+  public boolean isDirect() {
+    return direct;
+  }
+
+  /**
+   * Copies the data into the arena.
+   *
+   * @return the handle to load the data again
+   */
+  public synchronized long store(int[] data) {
+    if (released) {
+      throw new IllegalStateException("arena is already released");
+    }
+    int length = data.length;
+    IntBuffer slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+    if (slab == null || slabPosition + length > slab.capacity()) {
+      slab = allocateSlab(Math.max(SLAB_SIZE, length));
+      slabs.add(slab);
+      slabPosition = 0;
+    }
+    IntBuffer target = slab.duplicate();
+    target.position(slabPosition);
+    target.put(data, 0, length);
+
+    long handle = ((long) (slabs.size() - 1) << 32) | slabPosition;
+    slabPosition += length;
+    usedBytes += length * 4L;
+    return handle;
+  }
+
+  /**
+   * Copies <code>length</code> ints of the block with the given handle into
+   * a new array.
+   */
+  public int[] load(long handle, int length) {
+    int[] data = new int[length];
+    load(handle, data, length);
+    return data;
+  }
+
+  /**
+   * Copies <code>length</code> ints of the block with the given handle into
+   * the destination array.
+   */
+  public void load(long handle, int[] destination, int length) {
+    IntBuffer slab;
+    synchronized (this) {
+      if (released) {
+        throw new IllegalStateException("arena is already released");
+      }
+      slab = slabs.get((int) (handle >>> 32));
+    }
+    IntBuffer source = slab.duplicate();
+    source.position((int) handle);
+    source.get(destination, 0, length);
+  }
+
+  /**
+   * Returns the number of bytes stored in this arena.
+   */
+  public synchronized long getUsedBytes() {
+    return usedBytes;
+  }
+
+  /**
+   * Returns the number of bytes reserved by the slabs of this arena.
+   */
+  public synchronized long getReservedBytes() {
+    return slabs.stream().mapToLong(slab -> slab.capacity() * 4L).sum();
+  }
+
+  /**
+   * Releases all slabs. Pieces stored in this arena cannot be used anymore.
+   */
+  public synchronized void release() {
+    slabs.clear();
+    slabPosition = 0;
+    usedBytes = 0;
+    released = true;
+  }
+
+  private IntBuffer allocateSlab(int size) {
+    if (direct) {
+      return ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+    return IntBuffer.allocate(size);
+  }
+}
@@ -0,0 +1,104 @@
+package uk.co.petertribble.sphaero2.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses ARGB pixel data of pieces.
+ * <p>
+ * Pieces are cut out of a rectangle, so a good part of their data is fully
+ * transparent. The data is first split into runs of transparent pixels
+ * (zero, stored as a count only) and runs of visible pixels. The result
+ * is deflated.
+ */
+public final class PixelCodec {
+
+  /*
+   * This class should never be instantiated.
+   */
+  private PixelCodec() {
+  }
+
+  /**
+   * Compresses the pixel data.
+   *
+   * @param data ARGB pixels
+   * @return the compressed data
+   */
+  public static byte[] encode(int[] data) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length);
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(bytes, deflater, 8192)))) {
+      int i = 0;
+      while (i < data.length) {
+        int transparentStart = i;
+        while (i < data.length && data[i] == 0) {
+          i++;
+        }
+        int visibleStart = i;
+        while (i < data.length && data[i] != 0) {
+          i++;
+        }
+        out.writeInt(visibleStart - transparentStart);
+        out.writeInt(i - visibleStart);
+        for (int j = visibleStart; j < i; j++) {
+          out.writeInt(data[j]);
+        }
+      }
+    } catch (IOException e) {
+      // cannot happen when writing to memory
+      throw new UncheckedIOException(e);
+    } finally {
+      deflater.end();
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Decompresses the pixel data.
+   *
+   * @param compressed data returned by {@link #encode(int[])}
+   * @param length     number of pixels
+   * @return the ARGB pixels
+   */
+  public static int[] decode(byte[] compressed, int length) {
+    int[] data = new int[length];
+    decode(compressed, data, length);
+    return data;
+  }
+
+  /**
+   * Decompresses the pixel data into an existing array.
+   *
+   * @param compressed  data returned by {@link #encode(int[])}
+   * @param destination array for the ARGB pixels, at least <code>length</code> long
+   * @param length      number of pixels
+   */
+  public static void decode(byte[] compressed, int[] destination, int length) {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed))))) {
+      int i = 0;
+      while (i < length) {
+        // the destination may be reused, so the transparent pixels are cleared
+        int transparent = in.readInt();
+        Arrays.fill(destination, i, i + transparent, 0);
+        i += transparent;
+        int visible = in.readInt();
+        for (int j = 0; j < visible; j++) {
+          destination[i++] = in.readInt();
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("corrupt pixel data", e);
+    }
+  }
+}
@@ -0,0 +1,200 @@
+package uk.co.petertribble.sphaero2.components.play;
+
+import uk.co.petertribble.sphaero2.cutter.ClassicCutter;
+import uk.co.petertribble.sphaero2.cutter.CutterStatusListener;
+import uk.co.petertribble.sphaero2.cutter.JigsawCutter;
+import uk.co.petertribble.sphaero2.model.Jigsaw;
+import uk.co.petertribble.sphaero2.model.JigsawParam;
+import uk.co.petertribble.sphaero2.model.Piece;
+import uk.co.petertribble.sphaero2.model.PieceRegistry;
+import uk.co.petertribble.sphaero2.model.PiecesBin;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how fast {@link JigsawPiecesPanel} paints, without a screen.
+ * <p>
+ * A jigsaw is cut from a synthetic image and its pieces are laid out in
+ * several patterns. For each pattern, scale and selection size the panel is
+ * painted into an offscreen image, at rest (high quality) and while moving
+ * (fast), and the frames per second and the bytes allocated per frame are
+ * printed.
+ * <p>
+ * It lives with the test sources, so it is not part of the application jar.
+ * Usage, after <code>mvn test-compile</code>:
+ * <code>java -cp target/classes:target/test-classes:... uk.co.petertribble.sphaero2.components.play.PaintBenchmark
+ * [pieces] [viewport width] [viewport height] [frames]</code>
+ */
+public class PaintBenchmark {
+
+  private static final float[] SCALES = {1.0f, 0.5f, 0.25f};
+  /** Selected pieces in percent of all pieces. */
+  private static final int[] SELECTIONS = {0, 1, 25};
+  private static final int WARMUP_FRAMES = 20;
+
+  enum Layout {
+    /** Pieces spread over an area about twice the size of the image, randomly rotated. */
+    SCATTERED,
+    /** All pieces in one pile. */
+    STACKED,
+    /** Nine of ten pieces at their place, the rest scattered around. */
+    MOSTLY_SOLVED
+  }
+
+  private final int pieceCount;
+  private final int viewportWidth;
+  private final int viewportHeight;
+  private final int frames;
+
+  public PaintBenchmark(int pieceCount, int viewportWidth, int viewportHeight, int frames) {
+    this.pieceCount = pieceCount;
+    this.viewportWidth = viewportWidth;
+    this.viewportHeight = viewportHeight;
+    this.frames = frames;
+  }
+
+  /** Creates a jigsaw from a synthetic image of random circles on a gradient. */
+  Jigsaw createJigsaw() {
+    BufferedImage image = new BufferedImage(1600, 1200, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    g.setPaint(new GradientPaint(0, 0, Color.ORANGE, image.getWidth(), image.getHeight(), Color.BLUE));
+    g.fillRect(0, 0, image.getWidth(), image.getHeight());
+    Random random = new Random(42);
+    for (int i = 0; i < 400; i++) {
+      g.setColor(new Color(random.nextInt(0x1000000)));
+      int size = 20 + random.nextInt(120);
+      g.fillOval(random.nextInt(image.getWidth()), random.nextInt(image.getHeight()), size, size);
+    }
+    g.dispose();
+
+    JigsawParam params = new JigsawParam();
+    params.setCutter(new ClassicCutter());
+    params.setPieces(pieceCount);
+    JigsawCutter cutter = params.getCutter();
+    cutter.setStatusListener(new CutterStatusListener() {
+      @Override
+      public void startStep(String step, int maxValue) {
+      }
+
+      @Override
+      public void progress(int progress) {
+      }
+
+      @Override
+      public void ejectPiece(Piece piece) {
+      }
+
+      @Override
+      public void done(PiecesBin pieces) {
+      }
+    });
+    PiecesBin piecesBin = new PiecesBin(new PieceRegistry(), "benchmark", Arrays.asList(cutter.cut(image)));
+    return new Jigsaw(params, image, piecesBin);
+  }
+
+  void layout(Jigsaw jigsaw, Layout layout) {
+    PiecesBin piecesBin = jigsaw.getPieces();
+    int width = jigsaw.getImage().getWidth();
+    int height = jigsaw.getImage().getHeight();
+    Random random = new Random(7);
+    switch (layout) {
+      case SCATTERED:
+        piecesBin.shuffle(new Rectangle(0, 0, width * 3 / 2, height * 3 / 2), true);
+        break;
+      case STACKED:
+        for (Piece piece : piecesBin.getPieces()) {
+          piece.setPuzzlePosition(width / 2 + random.nextInt(40), height / 2 + random.nextInt(40));
+        }
+        break;
+      case MOSTLY_SOLVED:
+        for (Piece piece : piecesBin.getPieces()) {
+          piece.setRotation(0);
+          if (random.nextInt(10) == 0) {
+            piece.setPuzzlePosition(random.nextInt(width * 3 / 2), random.nextInt(height * 3 / 2));
+          } else {
+            piece.setPuzzlePosition(piece.getImageX(), piece.getImageY());
+          }
+        }
+        break;
+    }
+    for (Piece piece : piecesBin.getPieces()) {
+      piece.setCurrentPosition(piece.getPuzzleX(), piece.getPuzzleY());
+    }
+  }
+
+  /**
+   * Paints the given number of frames and returns the nano seconds and the
+   * allocated bytes (or -1 if unknown) of all frames.
+   */
+  long[] measure(JigsawPiecesPanel panel, BufferedImage target, int frameCount, boolean moving) {
+    long startBytes = PaintStatistics.allocatedBytes();
+    long startTime = System.nanoTime();
+    for (int i = 0; i < frameCount; i++) {
+      if (moving) {
+        panel.markMotion();
+      }
+      Graphics2D g = target.createGraphics();
+      g.setClip(0, 0, target.getWidth(), target.getHeight());
+      panel.paintComponent(g);
+      g.dispose();
+    }
+    long time = System.nanoTime() - startTime;
+    long endBytes = PaintStatistics.allocatedBytes();
+    return new long[]{time, startBytes < 0 ? -1 : endBytes - startBytes};
+  }
+
+  public void run() {
+    Jigsaw jigsaw = createJigsaw();
+    List<Piece> pieces = new ArrayList<>(jigsaw.getPieces().getPieces());
+    System.out.printf("%d pieces, viewport %dx%d, %d frames%n",
+        pieces.size(), viewportWidth, viewportHeight, frames);
+    System.out.printf("%-14s %6s %9s %7s %10s %10s %12s%n",
+        "layout", "scale", "selected", "moving", "fps", "ms/frame", "bytes/frame");
+
+    BufferedImage target = new BufferedImage(viewportWidth, viewportHeight, BufferedImage.TYPE_INT_RGB);
+    Random random = new Random(3);
+    for (Layout layout : Layout.values()) {
+      layout(jigsaw, layout);
+      for (float scale : SCALES) {
+        for (int percent : SELECTIONS) {
+          JigsawPiecesPanel panel = new JigsawPiecesPanel();
+          panel.setPiecesBin(jigsaw.getPieces());
+          panel.setScale(scale);
+          panel.setSize(viewportWidth, viewportHeight);
+          List<Piece> selected = new ArrayList<>();
+          for (int i = 0; i < pieces.size() * percent / 100; i++) {
+            selected.add(pieces.get(random.nextInt(pieces.size())));
+          }
+          panel.select(selected);
+
+          for (boolean moving : new boolean[]{false, true}) {
+            measure(panel, target, WARMUP_FRAMES, moving);
+            long[] result = measure(panel, target, frames, moving);
+            double msPerFrame = result[0] / 1_000_000.0 / frames;
+            System.out.printf("%-14s %6.2f %8d%% %7s %10.1f %10.3f %12s%n",
+                layout, scale, percent, moving, 1000 / msPerFrame, msPerFrame,
+                result[1] < 0 ? "n/a" : Long.toString(result[1] / frames));
+          }
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) {
+    System.setProperty("java.awt.headless", "true");
+    if (System.getProperty(QualityGovernor.PROPERTY) == null) {
+      // measure the same effects in every case
+      System.setProperty(QualityGovernor.PROPERTY, QualityGovernor.Quality.FULL.getLabel());
+    }
+    int pieceCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int width = args.length > 1 ? Integer.parseInt(args[1]) : 1600;
+    int height = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+    int frames = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+    new PaintBenchmark(pieceCount, width, height, frames).run();
+  }
+}
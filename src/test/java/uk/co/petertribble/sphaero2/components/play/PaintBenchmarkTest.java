@@ -0,0 +1,67 @@
+package uk.co.petertribble.sphaero2.components.play;
+
+import org.junit.jupiter.api.Test;
+import uk.co.petertribble.sphaero2.model.Jigsaw;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Runs a few frames of the {@link PaintBenchmark}, so it keeps working as the panel changes. */
+public class PaintBenchmarkTest {
+
+  private static final int WIDTH = 400;
+  private static final int HEIGHT = 300;
+
+  @Test
+  public void paintsPiecesInEveryLayout() {
+    PaintBenchmark benchmark = new PaintBenchmark(60, WIDTH, HEIGHT, 3);
+    Jigsaw jigsaw = benchmark.createJigsaw();
+    for (PaintBenchmark.Layout layout : PaintBenchmark.Layout.values()) {
+      benchmark.layout(jigsaw, layout);
+      JigsawPiecesPanel panel = new JigsawPiecesPanel();
+      panel.setPiecesBin(jigsaw.getPieces());
+      // the whole table fits into the viewport
+      panel.setScale(0.25f);
+      panel.setSize(WIDTH, HEIGHT);
+      for (boolean moving : new boolean[]{false, true}) {
+        BufferedImage target = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        long[] result = benchmark.measure(panel, target, 3, moving);
+        assertTrue(result[0] > 0, layout + " took no time");
+        int background = panel.getBackground().getRGB() & 0xffffff;
+        int painted = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+          for (int x = 0; x < WIDTH; x++) {
+            if ((target.getRGB(x, y) & 0xffffff) != background) {
+              painted++;
+            }
+          }
+        }
+        // a stacked pile covers the least, about 5% of the viewport
+        assertTrue(painted > WIDTH * HEIGHT / 100, layout + " painted only " + painted + " pixels");
+      }
+    }
+  }
+
+  @Test
+  public void printsOneLinePerCase() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+    try {
+      new PaintBenchmark(30, 200, 150, 1).run();
+    } finally {
+      System.setOut(out);
+    }
+    String[] lines = bytes.toString(StandardCharsets.UTF_8).split("\\R");
+    // two header lines, then layouts x scales x selections x (at rest, moving)
+    assertEquals(2 + 3 * 3 * 3 * 2, lines.length);
+    for (int i = 2; i < lines.length; i++) {
+      assertTrue(lines[i].matches("(SCATTERED|STACKED|MOSTLY_SOLVED) .*"), lines[i]);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package uk.co.petertribble.sphaero2.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CoverageMaskTest {
+
+  private static int[] randomData(int width, int height, long seed) {
+    Random random = new Random(seed);
+    int[] data = new int[width * height];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = random.nextInt(3) == 0 ? 0 : 0xff000000 | random.nextInt(0x1000000);
+    }
+    return data;
+  }
+
+  /** Rotates ARGB data clockwise by quarter turns, pixel by pixel. */
+  private static int[] rotateData(int[] data, int width, int height, int quarterTurns) {
+    int[] result = data;
+    int w = width;
+    int h = height;
+    for (int turn = 0; turn < quarterTurns; turn++) {
+      int[] rotated = new int[w * h];
+      // the new width is the old height
+      for (int y = 0; y < h; y++) {
+        for (int x = 0; x < w; x++) {
+          rotated[x * h + (h - 1 - y)] = result[y * w + x];
+        }
+      }
+      result = rotated;
+      int swap = w;
+      w = h;
+      h = swap;
+    }
+    return result;
+  }
+
+  @Test
+  public void readsAlphaOfData() {
+    int[] data = {0, 0xff000000, 0x01000000, 0x00ffffff};
+    CoverageMask mask = CoverageMask.fromArgb(data, 2, 2);
+    assertFalse(mask.get(0, 0));
+    assertTrue(mask.get(1, 0));
+    assertTrue(mask.get(0, 1));
+    assertFalse(mask.get(1, 1));
+    assertFalse(mask.get(-1, 0));
+    assertFalse(mask.get(2, 0));
+    assertFalse(mask.get(0, 2));
+  }
+
+  @Test
+  public void rotatesLikeTheData() {
+    // wider than a long, so rows span several words
+    int width = 70;
+    int height = 33;
+    int[] data = randomData(width, height, 1);
+    CoverageMask mask = CoverageMask.fromArgb(data, width, height);
+    for (int turns = 0; turns < 4; turns++) {
+      int rotatedWidth = turns % 2 == 0 ? width : height;
+      int rotatedHeight = turns % 2 == 0 ? height : width;
+      CoverageMask expected = CoverageMask.fromArgb(rotateData(data, width, height, turns), rotatedWidth, rotatedHeight);
+      CoverageMask rotated = mask.rotate(turns);
+      assertEquals(rotatedWidth, rotated.getWidth());
+      assertEquals(rotatedHeight, rotated.getHeight());
+      for (int y = 0; y < rotatedHeight; y++) {
+        for (int x = 0; x < rotatedWidth; x++) {
+          assertEquals(expected.get(x, y), rotated.get(x, y), "turns " + turns + " at " + x + "," + y);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void rotationByFullTurnsReturnsSameMask() {
+    CoverageMask mask = CoverageMask.fromArgb(randomData(5, 7, 2), 5, 7);
+    assertSame(mask, mask.rotate(0));
+    assertSame(mask, mask.rotate(4));
+    assertEquals(7, mask.rotate(-1).getWidth());
+  }
+
+  @Test
+  public void intersectsMatchesPixelComparison() {
+    int width = 90;
+    int height = 40;
+    CoverageMask a = CoverageMask.fromArgb(randomSparseData(width, height, 3), width, height);
+    CoverageMask b = CoverageMask.fromArgb(randomSparseData(75, 50, 4), 75, 50);
+    for (int dy = -55; dy <= 45; dy += 5) {
+      for (int dx = -80; dx <= 95; dx += 3) {
+        assertEquals(intersectsByPixel(a, b, dx, dy), a.intersects(b, dx, dy), "offset " + dx + "," + dy);
+      }
+    }
+  }
+
+  @Test
+  public void doesNotIntersectWhenApartOrTouching() {
+    int[] full = new int[10 * 10];
+    Arrays.fill(full, 0xff000000);
+    CoverageMask a = CoverageMask.fromArgb(full, 10, 10);
+    assertTrue(a.intersects(a, 9, 9));
+    assertFalse(a.intersects(a, 10, 0));
+    assertFalse(a.intersects(a, 0, -10));
+    assertFalse(a.intersects(a, 100, 100));
+  }
+
+  private static int[] randomSparseData(int width, int height, long seed) {
+    Random random = new Random(seed);
+    int[] data = new int[width * height];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = random.nextInt(40) == 0 ? 0xff000000 : 0;
+    }
+    return data;
+  }
+
+  private static boolean intersectsByPixel(CoverageMask a, CoverageMask b, int dx, int dy) {
+    for (int y = 0; y < a.getHeight(); y++) {
+      for (int x = 0; x < a.getWidth(); x++) {
+        if (a.get(x, y) && b.get(x - dx, y - dy)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
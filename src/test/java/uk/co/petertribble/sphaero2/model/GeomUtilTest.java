@@ -0,0 +1,54 @@
+package uk.co.petertribble.sphaero2.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class GeomUtilTest {
+
+  private static void assertRoundTrip(int x, int y) {
+    long point = GeomUtil.pack(x, y);
+    assertEquals(x, GeomUtil.x(point));
+    assertEquals(y, GeomUtil.y(point));
+  }
+
+  @Test
+  public void packsPoints() {
+    assertRoundTrip(0, 0);
+    assertRoundTrip(12, 345);
+    assertRoundTrip(-1, 1);
+    assertRoundTrip(1, -1);
+    assertRoundTrip(-7, -9);
+    assertRoundTrip(Integer.MAX_VALUE, Integer.MIN_VALUE);
+    assertRoundTrip(Integer.MIN_VALUE, Integer.MAX_VALUE);
+  }
+
+  @Test
+  public void packedPointsAreDistinct() {
+    assertTrue(GeomUtil.pack(0, -1) != GeomUtil.pack(-1, 0));
+    assertTrue(GeomUtil.pack(1, 0) != GeomUtil.pack(0, 1));
+  }
+
+  @Test
+  public void clearedRectangleTakesFirstUnion() {
+    Rectangle rect = new Rectangle(5, 5, 10, 10);
+    GeomUtil.clear(rect);
+    assertTrue(GeomUtil.isCleared(rect));
+    GeomUtil.union(rect, -3, 4, 2, 1);
+    assertFalse(GeomUtil.isCleared(rect));
+    assertEquals(new Rectangle(-3, 4, 2, 1), rect);
+  }
+
+  @Test
+  public void unionContainsBoth() {
+    Rectangle rect = new Rectangle(0, 0, 10, 10);
+    GeomUtil.union(rect, new Rectangle(20, -5, 5, 5));
+    assertEquals(new Rectangle(0, -5, 25, 15), rect);
+    GeomUtil.union(rect, 2, 2, 3, 3);
+    assertEquals(new Rectangle(0, -5, 25, 15), rect);
+  }
+}
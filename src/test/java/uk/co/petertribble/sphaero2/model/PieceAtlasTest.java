@@ -0,0 +1,91 @@
+package uk.co.petertribble.sphaero2.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the shelf allocator of the pages of a {@link PieceAtlas}.
+ */
+public class PieceAtlasTest {
+
+  private static Rectangle allocate(PieceAtlas.Page page, int width, int height) {
+    assertTrue(page.allocate(width, height), "no room for " + width + "x" + height);
+    return new Rectangle(page.resultX, page.resultY, width, height);
+  }
+
+  private static void assertInsideAndDisjoint(int size, List<Rectangle> slots) {
+    Rectangle pageArea = new Rectangle(0, 0, size, size);
+    for (int i = 0; i < slots.size(); i++) {
+      Rectangle slot = slots.get(i);
+      assertTrue(pageArea.contains(slot), slot + " is outside the page");
+      for (int j = i + 1; j < slots.size(); j++) {
+        assertFalse(slot.intersects(slots.get(j)), slot + " overlaps " + slots.get(j));
+      }
+    }
+  }
+
+  @Test
+  public void allocatesDisjointSlotsInsideThePage() {
+    PieceAtlas.Page page = new PieceAtlas.Page(512);
+    Random random = new Random(1);
+    List<Rectangle> slots = new ArrayList<>();
+    while (true) {
+      int width = 10 + random.nextInt(60);
+      int height = 10 + random.nextInt(60);
+      if (!page.allocate(width, height)) {
+        break;
+      }
+      slots.add(new Rectangle(page.resultX, page.resultY, width, height));
+    }
+    assertTrue(slots.size() > 50);
+    assertInsideAndDisjoint(512, slots);
+    long area = 0;
+    for (Rectangle slot : slots) {
+      area += (long) slot.width * slot.height;
+    }
+    assertEquals(area, page.usedArea);
+  }
+
+  @Test
+  public void fillsShelvesFromLeftToRight() {
+    PieceAtlas.Page page = new PieceAtlas.Page(100);
+    Rectangle first = allocate(page, 30, 20);
+    Rectangle second = allocate(page, 30, 18);
+    assertEquals(first.y, second.y);
+    assertEquals(first.x + first.width, second.x);
+    // a much flatter piece starts a new shelf instead of wasting the high one
+    Rectangle flat = allocate(page, 30, 5);
+    assertEquals(first.y + first.height, flat.y);
+  }
+
+  @Test
+  public void rejectsPieceWhenPageIsFull() {
+    PieceAtlas.Page page = new PieceAtlas.Page(64);
+    allocate(page, 63, 63);
+    assertFalse(page.allocate(2, 2));
+  }
+
+  @Test
+  public void reusesFreedSlots() {
+    PieceAtlas.Page page = new PieceAtlas.Page(64);
+    Rectangle first = allocate(page, 40, 40);
+    page.free(first.x, first.y, first.width, first.height);
+    assertEquals(0, page.usedArea);
+    assertEquals(1600, page.freeArea);
+    // freed slots are used before the shelves
+    Rectangle reused = allocate(page, 30, 40);
+    assertEquals(first.getLocation(), reused.getLocation());
+    // the rest on the right of the slot stays free
+    Rectangle rest = allocate(page, 10, 30);
+    assertEquals(new Point(first.x + 30, first.y), rest.getLocation());
+    assertEquals(0, page.freeArea);
+  }
+}
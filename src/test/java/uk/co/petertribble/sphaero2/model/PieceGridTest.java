@@ -0,0 +1,115 @@
+package uk.co.petertribble.sphaero2.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PieceGridTest {
+
+  private static Piece piece(int id, int x, int y, int width, int height) {
+    int[] data = new int[width * height];
+    Arrays.fill(data, 0xff808080);
+    return new Piece(id, data, x, y, width, height, 1000, 1000, 0);
+  }
+
+  private static List<Piece> findIn(PieceGrid grid, int x, int y, int width, int height) {
+    List<Piece> result = new ArrayList<>();
+    grid.findIn(x, y, width, height, result);
+    return result;
+  }
+
+  private static List<Piece> findAt(PieceGrid grid, int x, int y) {
+    List<Piece> result = new ArrayList<>();
+    grid.findAt(x, y, result);
+    return result;
+  }
+
+  @Test
+  public void findInReportsPieceSpanningCellsOnce() {
+    PieceGrid grid = new PieceGrid(10);
+    Piece piece = piece(0, 5, 5, 35, 35);
+    grid.add(piece);
+    assertEquals(List.of(piece), findIn(grid, 0, 0, 100, 100));
+    // queries starting inside the piece, in a later cell of it
+    assertEquals(List.of(piece), findIn(grid, 25, 25, 100, 100));
+    assertEquals(List.of(piece), findIn(grid, 21, 3, 4, 30));
+  }
+
+  @Test
+  public void findInReportsLargePieceOnce() {
+    PieceGrid grid = new PieceGrid(10);
+    Piece large = piece(0, -50, -50, 200, 200);
+    Piece small = piece(1, 10, 10, 5, 5);
+    grid.add(large);
+    grid.add(small);
+    List<Piece> found = findIn(grid, -100, -100, 300, 300);
+    assertEquals(2, found.size());
+    assertTrue(found.contains(large));
+    assertTrue(found.contains(small));
+    assertEquals(List.of(large), findIn(grid, 100, 100, 10, 10));
+  }
+
+  @Test
+  public void findInChecksBounds() {
+    PieceGrid grid = new PieceGrid(64);
+    Piece piece = piece(0, 10, 10, 20, 20);
+    grid.add(piece);
+    assertEquals(List.of(), findIn(grid, 30, 10, 10, 10));
+    assertEquals(List.of(), findIn(grid, 0, 0, 10, 10));
+    assertEquals(List.of(piece), findIn(grid, 29, 29, 1, 1));
+    assertEquals(List.of(), findIn(grid, 0, 0, 0, 100));
+  }
+
+  @Test
+  public void findAtReportsContainingPieces() {
+    PieceGrid grid = new PieceGrid(16);
+    Piece a = piece(0, 0, 0, 20, 20);
+    Piece b = piece(1, 10, 10, 20, 20);
+    grid.add(a);
+    grid.add(b);
+    assertEquals(List.of(a), findAt(grid, 5, 5));
+    assertEquals(2, findAt(grid, 15, 15).size());
+    assertEquals(List.of(b), findAt(grid, 20, 20));
+    assertEquals(List.of(), findAt(grid, 30, 30));
+  }
+
+  @Test
+  public void findsPiecesAtNegativeCoordinates() {
+    PieceGrid grid = new PieceGrid(10);
+    Piece piece = piece(0, -25, -25, 10, 10);
+    grid.add(piece);
+    assertEquals(List.of(piece), findAt(grid, -20, -16));
+    assertEquals(List.of(piece), findIn(grid, -100, -100, 90, 90));
+    assertEquals(List.of(), findAt(grid, -15, -15));
+  }
+
+  @Test
+  public void updateMovesPiece() {
+    PieceGrid grid = new PieceGrid(10);
+    Piece piece = piece(0, 0, 0, 15, 15);
+    grid.add(piece);
+    piece.setPuzzlePosition(100, 100);
+    grid.update(piece);
+    assertEquals(List.of(), findIn(grid, 0, 0, 50, 50));
+    assertEquals(List.of(piece), findIn(grid, 90, 90, 50, 50));
+    assertEquals(List.of(piece), findAt(grid, 114, 114));
+  }
+
+  @Test
+  public void removeForgetsPiece() {
+    PieceGrid grid = new PieceGrid(10);
+    Piece piece = piece(0, 0, 0, 15, 15);
+    Piece large = piece(1, 0, 0, 300, 300);
+    grid.add(piece);
+    grid.add(large);
+    grid.remove(piece);
+    grid.remove(large);
+    assertEquals(List.of(), findIn(grid, 0, 0, 500, 500));
+    assertEquals(List.of(), findAt(grid, 5, 5));
+  }
+}
@@ -0,0 +1,101 @@
+package uk.co.petertribble.sphaero2.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PieceSetTest {
+
+  private static Piece piece(int id, int x, int y) {
+    int[] data = new int[10 * 10];
+    Arrays.fill(data, 0xff808080);
+    return new Piece(id, data, x, y, 10, 10, 1000, 1000, 0);
+  }
+
+  private static List<Piece> toList(PieceSet set) {
+    List<Piece> result = new ArrayList<>();
+    for (Piece piece : set) {
+      result.add(piece);
+    }
+    return result;
+  }
+
+  @Test
+  public void keepsInsertionOrderAndRemoves() {
+    PieceRegistry registry = new PieceRegistry();
+    Piece a = piece(0, 0, 0);
+    Piece b = piece(1, 10, 0);
+    Piece c = piece(2, 20, 0);
+    registry.register(a);
+    registry.register(b);
+    registry.register(c);
+    PieceSet set = new PieceSet(registry);
+    set.add(c);
+    set.add(a);
+    set.add(b);
+    set.remove(a);
+    assertEquals(List.of(c, b), toList(set));
+    set.add(a);
+    assertEquals(List.of(c, b, a), toList(set));
+    assertEquals(a, set.get(2));
+  }
+
+  @Test
+  public void dropsPieceWhoseIdIsReused() {
+    PieceRegistry registry = new PieceRegistry();
+    Piece old = piece(0, 0, 0);
+    Piece kept = piece(1, 50, 50);
+    registry.register(old);
+    registry.register(kept);
+    PieceSet set = new PieceSet(registry);
+    set.add(old);
+    set.add(kept);
+
+    registry.unregister(old);
+    Piece reused = piece(-1, 100, 100);
+    registry.register(reused);
+    assertEquals(old.getId(), reused.getId());
+
+    assertEquals(1, set.size());
+    assertFalse(set.contains(old));
+    assertFalse(set.contains(reused));
+    assertEquals(List.of(kept), toList(set));
+    List<Piece> visited = new ArrayList<>();
+    set.forEach(visited::add);
+    assertEquals(List.of(kept), visited);
+
+    set.moveBy(5, 5);
+    assertEquals(100, reused.getPuzzleX());
+    assertEquals(55, kept.getPuzzleX());
+
+    set.add(reused);
+    assertTrue(set.contains(reused));
+    assertEquals(List.of(kept, reused), toList(set));
+  }
+
+  @Test
+  public void skipsPieceUnregisteredWhileIterating() {
+    PieceRegistry registry = new PieceRegistry();
+    Piece a = piece(0, 0, 0);
+    Piece b = piece(1, 10, 0);
+    registry.register(a);
+    registry.register(b);
+    PieceSet set = new PieceSet(registry);
+    set.add(a);
+    set.add(b);
+    List<Piece> visited = new ArrayList<>();
+    for (Piece piece : set) {
+      visited.add(piece);
+      registry.unregister(b);
+    }
+    assertEquals(List.of(a), visited);
+    assertTrue(set.contains(a));
+    assertEquals(1, set.size());
+  }
+}
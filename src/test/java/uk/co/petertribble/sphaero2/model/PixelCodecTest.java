@@ -0,0 +1,96 @@
+package uk.co.petertribble.sphaero2.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PixelCodecTest {
+
+  /** Returns pixels with runs of transparent and visible pixels, like a piece. */
+  private static int[] pieceLikeData(int length, long seed) {
+    Random random = new Random(seed);
+    int[] data = new int[length];
+    int i = 0;
+    while (i < length) {
+      i += random.nextInt(50);
+      int visible = random.nextInt(80);
+      for (int j = 0; j < visible && i < length; j++) {
+        data[i++] = 0xff000000 | random.nextInt(0x1000000);
+      }
+    }
+    return data;
+  }
+
+  private static int[] roundTrip(int[] data) {
+    return PixelCodec.decode(PixelCodec.encode(data), data.length);
+  }
+
+  @Test
+  public void roundTripsPieceData() {
+    int[] data = pieceLikeData(100 * 120, 1);
+    assertArrayEquals(data, roundTrip(data));
+  }
+
+  @Test
+  public void roundTripsEmptyData() {
+    assertArrayEquals(new int[0], roundTrip(new int[0]));
+  }
+
+  @Test
+  public void roundTripsTransparentData() {
+    int[] data = new int[4096];
+    assertArrayEquals(data, roundTrip(data));
+  }
+
+  @Test
+  public void roundTripsOpaqueData() {
+    int[] data = new int[4096];
+    Arrays.fill(data, 0xff336699);
+    data[0] = 0x01000000;
+    data[data.length - 1] = 0x80ffffff;
+    assertArrayEquals(data, roundTrip(data));
+  }
+
+  @Test
+  public void roundTripsRunsAtTheEnds() {
+    int[] data = {0, 0, 0xff000001, 0, 0xff000002, 0xff000003, 0, 0};
+    assertArrayEquals(data, roundTrip(data));
+    int[] visibleEnds = {0xff000001, 0, 0, 0xff000002};
+    assertArrayEquals(visibleEnds, roundTrip(visibleEnds));
+  }
+
+  @Test
+  public void decodeClearsTransparentPixelsOfReusedBuffer() {
+    int[] data = pieceLikeData(5000, 2);
+    int[] buffer = new int[data.length];
+    Arrays.fill(buffer, 0xffffffff);
+    PixelCodec.decode(PixelCodec.encode(data), buffer, data.length);
+    assertArrayEquals(data, buffer);
+  }
+
+  @Test
+  public void decodeLeavesRestOfLongerBuffer() {
+    int[] data = pieceLikeData(1000, 3);
+    int[] buffer = new int[1200];
+    Arrays.fill(buffer, 7);
+    PixelCodec.decode(PixelCodec.encode(data), buffer, data.length);
+    assertArrayEquals(data, Arrays.copyOf(buffer, data.length));
+    for (int i = data.length; i < buffer.length; i++) {
+      assertEquals(7, buffer[i]);
+    }
+  }
+
+  @Test
+  public void compressesMostlyTransparentData() {
+    int[] data = new int[200 * 200];
+    for (int y = 80; y < 120; y++) {
+      Arrays.fill(data, y * 200 + 80, y * 200 + 120, 0xff123456);
+    }
+    assertTrue(PixelCodec.encode(data).length < data.length);
+  }
+}